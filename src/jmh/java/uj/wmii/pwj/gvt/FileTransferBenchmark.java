@@ -0,0 +1,100 @@
+package uj.wmii.pwj.gvt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput of moving a single large file into and out of the object store,
+ * against plain {@link Files#copy} as a baseline. Each operation moves {@code fileSize} bytes,
+ * 1 GiB by default, so throughput is {@code fileSize} divided by the reported time. Deflated
+ * objects can be measured with e.g. {@code ./gradlew jmh -Pjmh.includes=FileTransferBenchmark
+ * -Pjmh.args="-p codec=deflate"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileTransferBenchmark {
+
+    @Param({"1073741824"})
+    public long fileSize;
+
+    @Param({"none"})
+    public String codec;
+
+    private Path root;
+    private Path source;
+    private Path target;
+    private ObjectStore objectStore;
+    private String hash;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        root = Files.createTempDirectory("gvt-bench-");
+        source = root.resolve("source.bin");
+        target = root.resolve("target.bin");
+        objectStore = new ObjectStore(Files.createDirectory(root.resolve("objects")), Codec.forName(codec));
+
+        Random random = new Random(42);
+        byte[] block = new byte[FileTransfer.BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+        hash = objectStore.store(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public String hash() throws IOException {
+        return ObjectStore.hash(source);
+    }
+
+    @Benchmark
+    public String store() throws IOException {
+        return objectStore.store(source);
+    }
+
+    @Benchmark
+    public void restore() throws IOException {
+        objectStore.restore(hash, target);
+    }
+
+    @Benchmark
+    public void filesCopy() throws IOException {
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,107 @@
+package uj.wmii.pwj.gvt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how restoring and snapshotting a set of files scales with the number of
+ * parallel I/O jobs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelIoBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int jobs;
+
+    @Param({"200"})
+    public int files;
+
+    @Param({"262144"})
+    public int fileSize;
+
+    private Path root;
+    private Path workingDir;
+    private ObjectStore objectStore;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> hashes = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        root = Files.createTempDirectory("gvt-bench-");
+        workingDir = Files.createDirectory(root.resolve("work"));
+        objectStore = new ObjectStore(Files.createDirectory(root.resolve("objects")), Codec.DEFLATE);
+
+        Random random = new Random(42);
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < files; i++) {
+            random.nextBytes(content);
+            Path file = workingDir.resolve("file" + i + ".bin");
+            Files.write(file, content);
+            names.add(file.getFileName().toString());
+            hashes.add(objectStore.store(file));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Void> restore() throws IOException {
+        List<ParallelIo.IoTask<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            String hash = hashes.get(i);
+            Path target = workingDir.resolve(names.get(i));
+            tasks.add(() -> {
+                objectStore.restore(hash, target);
+                return null;
+            });
+        }
+        try (ParallelIo io = new ParallelIo(jobs)) {
+            return io.run(tasks);
+        }
+    }
+
+    @Benchmark
+    public List<String> snapshot() throws IOException {
+        List<ParallelIo.IoTask<String>> tasks = new ArrayList<>();
+        for (String name : names) {
+            Path source = workingDir.resolve(name);
+            tasks.add(() -> objectStore.store(source));
+        }
+        try (ParallelIo io = new ParallelIo(jobs)) {
+            return io.run(tasks);
+        }
+    }
+}
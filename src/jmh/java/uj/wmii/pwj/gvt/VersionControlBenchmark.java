@@ -0,0 +1,217 @@
+package uj.wmii.pwj.gvt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures every {@link Gvt.VersionControl} operation on a repository in a temporary directory,
+ * parameterized by the number of tracked files, their size and the number of versions in history.
+ * <p>
+ * Operations that create versions are prepared per invocation (files modified, detached or added
+ * beforehand), so only the operation itself is measured. History keeps growing while they run;
+ * {@code historyDepth} is its length at the start of the trial. Narrow the parameter space with
+ * e.g. {@code ./gradlew jmh -Pjmh.includes=VersionControlBenchmark.commit -Pjmh.args="-p files=10"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VersionControlBenchmark {
+
+    private static final String HISTORY_FILE = "history.txt";
+    private static final String DETACHED_FILE = "detached.txt";
+
+    @Benchmark
+    public void init(EmptyDirectory directory) throws IOException {
+        new Gvt.VersionControl(directory.root).init();
+    }
+
+    @Benchmark
+    public Gvt.VersionControl.BatchResult add(DetachedFiles repository) throws IOException {
+        return repository.versionControl.add(repository.fileNames, "");
+    }
+
+    @Benchmark
+    public Gvt.VersionControl.BatchResult commit(ModifiedFiles repository) throws IOException {
+        return repository.versionControl.commit(repository.fileNames, "");
+    }
+
+    @Benchmark
+    public void detach(TrackedFile repository) throws IOException {
+        repository.versionControl.detach(DETACHED_FILE);
+    }
+
+    @Benchmark
+    public Gvt.VersionControl.CheckoutResult checkout(Repository repository) throws IOException {
+        repository.checkoutPrevious = !repository.checkoutPrevious;
+        int version = repository.checkoutPrevious ? repository.modifiedVersion - 1 : repository.modifiedVersion;
+        return repository.versionControl.checkout(version);
+    }
+
+    @Benchmark
+    public Gvt.VersionControl.CheckoutResult checkoutUnchanged(Repository repository) throws IOException {
+        return repository.versionControl.checkout(repository.modifiedVersion);
+    }
+
+    @Benchmark
+    public String history(Repository repository) throws IOException {
+        return repository.versionControl.history();
+    }
+
+    @Benchmark
+    public String historyLast20(Repository repository) throws IOException {
+        return repository.versionControl.history(20);
+    }
+
+    @Benchmark
+    public Gvt.VersionControl.VersionInfo version(Repository repository) throws IOException {
+        int version = ThreadLocalRandom.current().nextInt(repository.historyDepth);
+        return repository.versionControl.version(version);
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptyDirectory {
+
+        Path root;
+
+        @Setup(Level.Invocation)
+        public void createDirectory() throws IOException {
+            root = Files.createTempDirectory("gvt-bench-");
+        }
+
+        @TearDown(Level.Invocation)
+        public void deleteDirectory() throws IOException {
+            deleteRecursively(root);
+        }
+    }
+
+    /**
+     * Repository whose history consists of one {@code add} of all files followed by commits of a
+     * small separate file, and a last version in which every file was modified.
+     */
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        @Param({"10", "1000"})
+        public int files;
+
+        @Param({"1024", "262144"})
+        public int fileSize;
+
+        @Param({"100", "10000", "100000"})
+        public int historyDepth;
+
+        Path root;
+        Gvt.VersionControl versionControl;
+        final List<String> fileNames = new ArrayList<>();
+        int modifiedVersion;
+        boolean checkoutPrevious;
+        private int modifications;
+
+        @Setup(Level.Trial)
+        public void createRepository() throws IOException {
+            root = Files.createTempDirectory("gvt-bench-");
+            versionControl = new Gvt.VersionControl(root);
+            versionControl.init();
+
+            Random random = new Random(42);
+            byte[] content = new byte[fileSize];
+            for (int i = 0; i < files; i++) {
+                random.nextBytes(content);
+                String fileName = "file" + i + ".bin";
+                Files.write(root.resolve(fileName), content);
+                fileNames.add(fileName);
+            }
+            Files.writeString(root.resolve(HISTORY_FILE), "0");
+            versionControl.add(fileNames, "");
+            versionControl.add(HISTORY_FILE, "");
+
+            for (int version = 3; version < historyDepth - 1; version++) {
+                Files.writeString(root.resolve(HISTORY_FILE), String.valueOf(version));
+                versionControl.commit(HISTORY_FILE, "Version " + version);
+            }
+            modifyFiles();
+            versionControl.commit(fileNames, "");
+            modifiedVersion = historyDepth - 1;
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteRepository() throws IOException {
+            deleteRecursively(root);
+        }
+
+        /**
+         * Overwrites the first bytes of every file, so each of them gets new content.
+         */
+        void modifyFiles() throws IOException {
+            modifications++;
+            for (String fileName : fileNames) {
+                try (RandomAccessFile file = new RandomAccessFile(root.resolve(fileName).toFile(), "rw")) {
+                    file.writeInt(modifications);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class DetachedFiles extends Repository {
+
+        @Setup(Level.Invocation)
+        public void detachFiles() throws IOException {
+            for (String fileName : fileNames) {
+                versionControl.detach(fileName);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ModifiedFiles extends Repository {
+
+        @Setup(Level.Invocation)
+        public void modify() throws IOException {
+            modifyFiles();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TrackedFile extends Repository {
+
+        @Setup(Level.Invocation)
+        public void addFile() throws IOException {
+            Files.writeString(root.resolve(DETACHED_FILE), "detached");
+            versionControl.add(DETACHED_FILE, "");
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package uj.wmii.pwj.gvt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares reading version metadata from the memory-mapped version log, both by seeking
+ * through its index and from the in-memory table kept by long-lived callers, with the former
+ * layout of one {@code versions/N.txt} file per version.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VersionLogBenchmark {
+
+    private static final String MANIFEST_HASH = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+    private static final int HISTORY_LENGTH = 20;
+
+    @Param({"10000", "100000", "1000000"})
+    public int versions;
+
+    private Path root;
+    private Path versionsDir;
+    private VersionLog versionLog;
+    private VersionLog cachedLog;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        root = Files.createTempDirectory("gvt-bench-");
+        versionsDir = Files.createDirectory(root.resolve("versions"));
+        versionLog = new VersionLog(root.resolve("versions.log"), root.resolve("versions.idx"));
+        versionLog.create();
+        for (int i = 0; i < versions; i++) {
+            String message = "File committed successfully. File: file" + i + ".txt\n";
+            versionLog.append(new VersionLog.VersionRecord(i, i, MANIFEST_HASH, message));
+            Files.writeString(versionsDir.resolve(i + ".txt"), message);
+        }
+        cachedLog = new VersionLog(root.resolve("versions.log"), root.resolve("versions.idx"));
+        cachedLog.cacheTable();
+        cachedLog.table();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void historyLast20Mapped(Blackhole blackhole) throws IOException {
+        for (VersionLog.VersionRecord record : versionLog.readRange(versions - HISTORY_LENGTH, versions - 1)) {
+            blackhole.consume(record.message().lines().findFirst().orElse(""));
+        }
+    }
+
+    @Benchmark
+    public String historyLast20Cached() throws IOException {
+        return cachedLog.history(versions - HISTORY_LENGTH, versions - 1);
+    }
+
+    @Benchmark
+    public void historyLast20PerFile(Blackhole blackhole) throws IOException {
+        for (int i = versions - 1; i >= versions - HISTORY_LENGTH; i--) {
+            blackhole.consume(Files.readAllLines(versionsDir.resolve(i + ".txt")).get(0));
+        }
+    }
+
+    @Benchmark
+    public String versionMapped() throws IOException {
+        return versionLog.read(randomVersion()).message();
+    }
+
+    @Benchmark
+    public String versionCached() throws IOException {
+        return cachedLog.read(randomVersion()).message();
+    }
+
+    @Benchmark
+    public String versionPerFile() throws IOException {
+        return Files.readString(versionsDir.resolve(randomVersion() + ".txt"));
+    }
+
+    private int randomVersion() {
+        return ThreadLocalRandom.current().nextInt(versions);
+    }
+}
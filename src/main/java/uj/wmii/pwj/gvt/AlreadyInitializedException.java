@@ -0,0 +1,19 @@
+package uj.wmii.pwj.gvt;
+
+import java.nio.file.Path;
+
+public class AlreadyInitializedException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path root;
+
+    AlreadyInitializedException(Path root) {
+        super("Current directory is already initialized.");
+        this.root = root;
+    }
+
+    public Path root() {
+        return root;
+    }
+}
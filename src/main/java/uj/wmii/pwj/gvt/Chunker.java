@@ -0,0 +1,73 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+final class Chunker {
+
+    static final int MIN_SIZE = 16 * 1024;
+    static final int AVERAGE_SIZE = 64 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+
+    private static final int AVERAGE_BITS = Integer.numberOfTrailingZeros(AVERAGE_SIZE);
+    private static final long MASK_BELOW_AVERAGE = topBits(AVERAGE_BITS + 2);
+    private static final long MASK_ABOVE_AVERAGE = topBits(AVERAGE_BITS - 2);
+    private static final long[] GEAR = new SplittableRandom(0x6776745f63646300L).longs(256).toArray();
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[MAX_SIZE];
+    private int length;
+    private boolean endOfStream;
+
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    byte[] next() throws IOException {
+        while (!endOfStream && length < buffer.length) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                length += read;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        int cut = cutPoint(buffer, length);
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, length - cut);
+        length -= cut;
+        return chunk;
+    }
+
+    static int cutPoint(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int end = Math.min(length, MAX_SIZE);
+        int normal = Math.min(end, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_BELOW_AVERAGE) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_ABOVE_AVERAGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static long topBits(int bits) {
+        return -1L << (Long.SIZE - bits);
+    }
+}
@@ -0,0 +1,35 @@
+package uj.wmii.pwj.gvt;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("uj.wmii.pwj.gvt.Command")
+@Label("Gvt Command")
+@Category("Gvt")
+@Description("A gvt command and the I/O done while it ran")
+class CommandEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Exit Code")
+    int exitCode;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Files Touched")
+    long filesTouched;
+
+    @Label("Fsyncs")
+    long fsyncs;
+}
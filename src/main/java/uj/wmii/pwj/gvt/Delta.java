@@ -0,0 +1,232 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+final class Delta {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int PRIME = 31;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+
+    private Delta() {
+    }
+
+    static byte[] compute(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, target.length);
+
+        if (base.length < BLOCK_SIZE || target.length < BLOCK_SIZE) {
+            writeInsert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+
+        BlockIndex blocks = new BlockIndex(base);
+        int highPower = power(BLOCK_SIZE - 1);
+        int literalStart = 0;
+        int position = 0;
+        int hash = hashOf(target, 0);
+
+        while (position + BLOCK_SIZE <= target.length) {
+            int offset = blocks.find(hash);
+            if (offset >= 0 && regionMatches(base, offset, target, position)) {
+                int start = position;
+                int baseStart = offset;
+                while (baseStart > 0 && start > literalStart && base[baseStart - 1] == target[start - 1]) {
+                    baseStart--;
+                    start--;
+                }
+                int end = position + BLOCK_SIZE;
+                int baseEnd = offset + BLOCK_SIZE;
+                while (baseEnd < base.length && end < target.length && base[baseEnd] == target[end]) {
+                    baseEnd++;
+                    end++;
+                }
+                writeInsert(out, target, literalStart, start - literalStart);
+                writeCopy(out, baseStart, end - start);
+                literalStart = end;
+                position = end;
+                if (position + BLOCK_SIZE <= target.length) {
+                    hash = hashOf(target, position);
+                }
+            } else {
+                if (position + BLOCK_SIZE < target.length) {
+                    hash = (hash - target[position] * highPower) * PRIME + target[position + BLOCK_SIZE];
+                }
+                position++;
+            }
+        }
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        return out.toByteArray();
+    }
+
+    static byte[] apply(byte[] base, byte[] delta) {
+        TargetArray target = new TargetArray(readVarInt(delta, new int[]{0}));
+        try {
+            apply(base, delta, target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return target.array;
+    }
+
+    static long apply(byte[] base, byte[] delta, OutputStream out) throws IOException {
+        int[] cursor = {0};
+        int targetLength = readVarInt(delta, cursor);
+        int written = 0;
+        while (cursor[0] < delta.length) {
+            int op = delta[cursor[0]++];
+            if (op != OP_COPY && op != OP_INSERT) {
+                throw new IllegalArgumentException("Corrupted delta, unknown instruction: " + op);
+            }
+            int offset = op == OP_COPY ? readVarInt(delta, cursor) : 0;
+            int length = readVarInt(delta, cursor);
+            if (length > targetLength - written) {
+                throw new IllegalArgumentException("Corrupted delta, more than the expected " + targetLength
+                        + " bytes");
+            }
+            // checked before anything is written, so a corrupted delta never fails half way through a copy
+            if (op == OP_COPY ? offset > base.length - length : length > delta.length - cursor[0]) {
+                throw new IllegalArgumentException("Corrupted delta, instruction out of range at " + cursor[0]);
+            }
+            if (op == OP_COPY) {
+                out.write(base, offset, length);
+            } else {
+                out.write(delta, cursor[0], length);
+                cursor[0] += length;
+            }
+            written += length;
+        }
+        if (written != targetLength) {
+            throw new IllegalArgumentException("Corrupted delta, expected " + targetLength
+                    + " bytes but got " + written);
+        }
+        return written;
+    }
+
+    private static boolean regionMatches(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (base[baseOffset + i] != target[targetOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hashOf(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * PRIME + data[offset + i];
+        }
+        return hash;
+    }
+
+    private static int power(int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= PRIME;
+        }
+        return result;
+    }
+
+    private static void writeCopy(ByteArrayOutputStream out, int offset, int length) {
+        out.write(OP_COPY);
+        writeVarInt(out, offset);
+        writeVarInt(out, length);
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        out.write(OP_INSERT);
+        writeVarInt(out, length);
+        out.write(data, offset, length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] data, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (cursor[0] == data.length) {
+                throw new IllegalArgumentException("Corrupted delta, truncated number at " + cursor[0]);
+            }
+            b = data[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static final class TargetArray extends OutputStream {
+
+        private final byte[] array;
+        private int size;
+
+        TargetArray(int length) {
+            array = new byte[length];
+        }
+
+        @Override
+        public void write(int b) {
+            array[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) {
+            System.arraycopy(b, offset, array, size, length);
+            size += length;
+        }
+    }
+
+    private static final class BlockIndex {
+
+        private final byte[] base;
+        private final int[] slots;
+        private final int mask;
+
+        BlockIndex(byte[] base) {
+            this.base = base;
+            // the smallest power of two keeping the table at most two thirds full
+            int minimum = base.length / BLOCK_SIZE * 3 / 2;
+            slots = new int[Math.max(2, Integer.highestOneBit(minimum - 1) << 1)];
+            mask = slots.length - 1;
+            for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+                int hash = hashOf(base, offset);
+                int slot = slotOf(hash);
+                if (slot >= 0 && slots[slot] == 0) {
+                    // offsets are stored plus one, so that 0 marks an empty slot
+                    slots[slot] = offset + 1;
+                }
+            }
+        }
+
+        int find(int hash) {
+            int slot = slotOf(hash);
+            return slot < 0 || slots[slot] == 0 ? -1 : slots[slot] - 1;
+        }
+
+        private int slotOf(int hash) {
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (int probe = 0; probe < slots.length; probe++) {
+                if (slots[slot] == 0 || hashOf(base, slots[slot] - 1) == hash) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
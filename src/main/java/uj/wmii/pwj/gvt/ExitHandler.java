@@ -2,7 +2,7 @@ package uj.wmii.pwj.gvt;
 
 public class ExitHandler {
 
-    final void exit(int code, String message) {
+    void exit(int code, String message) {
         System.out.println(message);
         exitOperation(code);
     }
@@ -11,4 +11,13 @@ public class ExitHandler {
         System.exit(code);
     }
 
+    // Goes to stderr, so stdout stays as the command defines it.
+    void summary(String summary) {
+        System.err.println(summary);
+    }
+
+    boolean terminates() {
+        return true;
+    }
+
 }
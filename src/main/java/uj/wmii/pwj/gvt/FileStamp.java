@@ -0,0 +1,15 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+record FileStamp(Object fileKey, long size, FileTime modified) {
+
+    static FileStamp of(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new FileStamp(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime());
+    }
+}
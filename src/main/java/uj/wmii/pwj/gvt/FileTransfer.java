@@ -0,0 +1,147 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+final class FileTransfer {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+    private static final BufferPool DIRECT_BUFFERS = new BufferPool(true);
+    private static final BufferPool HEAP_BUFFERS = new BufferPool(false);
+
+    private FileTransfer() {
+    }
+
+    static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = create(target)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    // truncated concurrently
+                    break;
+                }
+                position += transferred;
+            }
+            Metrics.bytesRead(position);
+            Metrics.bytesWritten(position);
+        }
+    }
+
+    static void copy(InputStream in, Path target) throws IOException {
+        ByteBuffer buffer = HEAP_BUFFERS.acquire();
+        try (OutputStream out = Channels.newOutputStream(create(target))) {
+            byte[] array = buffer.array();
+            long total = 0;
+            int read;
+            while ((read = in.read(array)) >= 0) {
+                out.write(array, 0, read);
+                total += read;
+            }
+            Metrics.bytesRead(total);
+            Metrics.bytesWritten(total);
+        } finally {
+            HEAP_BUFFERS.release(buffer);
+        }
+    }
+
+    static OutputStream newOutputStream(Path target) throws IOException {
+        return new BufferedOutputStream(Channels.newOutputStream(create(target)));
+    }
+
+    static void copy(Path source, FileChannel target, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = DIRECT_BUFFERS.acquire();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long total = 0;
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                total += buffer.remaining();
+                digest.update(buffer);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+            }
+            Metrics.bytesRead(total);
+            Metrics.bytesWritten(total);
+        } finally {
+            DIRECT_BUFFERS.release(buffer);
+        }
+    }
+
+    static void copy(Path source, OutputStream target, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = HEAP_BUFFERS.acquire();
+        try (InputStream in = Files.newInputStream(source)) {
+            byte[] array = buffer.array();
+            long total = 0;
+            int read;
+            while ((read = in.read(array)) >= 0) {
+                digest.update(array, 0, read);
+                target.write(array, 0, read);
+                total += read;
+            }
+            Metrics.bytesRead(total);
+            Metrics.bytesWritten(total);
+        } finally {
+            HEAP_BUFFERS.release(buffer);
+        }
+    }
+
+    static void digest(Path source, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = DIRECT_BUFFERS.acquire();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long total = 0;
+            while (in.read(buffer) >= 0) {
+                total += buffer.flip().remaining();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            Metrics.bytesRead(total);
+        } finally {
+            DIRECT_BUFFERS.release(buffer);
+        }
+    }
+
+    private static FileChannel create(Path target) throws IOException {
+        Files.deleteIfExists(target);
+        return FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+    }
+
+    private static final class BufferPool {
+
+        private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(POOL_SIZE);
+        private final boolean direct;
+
+        BufferPool(boolean direct) {
+            this.direct = direct;
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = free.poll();
+            if (buffer == null) {
+                return direct ? ByteBuffer.allocateDirect(BUFFER_SIZE) : ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            return buffer.clear();
+        }
+
+        void release(ByteBuffer buffer) {
+            free.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+final class Fsync {
+
+    private static final boolean DIRECTORY_SYNC_SUPPORTED =
+            !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    private Fsync() {
+    }
+
+    static void file(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Metrics.fsync();
+    }
+
+    static void directory(Path directory) throws IOException {
+        if (!DIRECTORY_SYNC_SUPPORTED) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        Metrics.fsync();
+    }
+
+    static void all(List<Path> files, List<Path> directories, ParallelIo io) throws IOException {
+        List<ParallelIo.IoTask<Void>> tasks = new ArrayList<>();
+        for (Path file : files) {
+            tasks.add(() -> {
+                file(file);
+                return null;
+            });
+        }
+        io.run(tasks);
+        for (Path directory : directories) {
+            directory(directory);
+        }
+    }
+}
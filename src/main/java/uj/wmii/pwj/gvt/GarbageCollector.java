@@ -0,0 +1,153 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+// Objects within the grace period are marked before any version reaches them, so visited trees
+// are tracked apart from marked objects.
+final class GarbageCollector {
+
+    private final ObjectStore store;
+    private final Tree.Loader trees;
+    private final long cutoff;
+    private long[] ids = new long[1024];
+    private int count;
+    private long[] deltaIds = new long[64];
+    private int deltaCount;
+    private long[] chunkListIds = new long[64];
+    private int chunkListCount;
+    private final BitSet deltas = new BitSet();
+    private final BitSet chunkLists = new BitSet();
+    private final BitSet marked = new BitSet();
+    private final BitSet visitedTrees = new BitSet();
+
+    private GarbageCollector(ObjectStore store, Tree.Loader trees, Duration gracePeriod) {
+        this.store = store;
+        this.trees = trees;
+        this.cutoff = System.currentTimeMillis() - gracePeriod.toMillis();
+    }
+
+    static GarbageCollector scan(ObjectStore store, Tree.Loader trees, Duration gracePeriod) throws IOException {
+        GarbageCollector collector = new GarbageCollector(store, trees, gracePeriod);
+        collector.scan();
+        return collector;
+    }
+
+    void markTree(String hash) throws IOException {
+        int id = idOf(hash);
+        if (id < 0 || visitedTrees.get(id)) {
+            return;
+        }
+        visitedTrees.set(id);
+        markObject(hash);
+        for (Map.Entry<String, String> entry : trees.entries(hash).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                markTree(entry.getValue());
+            } else {
+                markObject(entry.getValue());
+            }
+        }
+    }
+
+    Result sweep() throws IOException {
+        int[] removed = {0};
+        long[] freed = {0};
+        store.list((file, hash, form, attributes) -> {
+            if (attributes.lastModifiedTime().toMillis() >= cutoff) {
+                return;
+            }
+            if (hash != null) {
+                int id = idOf(hash);
+                if (id < 0 || marked.get(id)) {
+                    return;
+                }
+            }
+            if (Files.deleteIfExists(file)) {
+                removed[0]++;
+                freed[0] += attributes.size();
+            }
+        });
+        return new Result(removed[0], freed[0]);
+    }
+
+    private void scan() throws IOException {
+        List<String> fresh = new ArrayList<>();
+        store.list((file, hash, form, attributes) -> {
+            if (hash == null) {
+                return;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = prefixOf(hash);
+            if (form == ObjectStore.Form.DELTA) {
+                if (deltaCount == deltaIds.length) {
+                    deltaIds = Arrays.copyOf(deltaIds, deltaCount * 2);
+                }
+                deltaIds[deltaCount++] = prefixOf(hash);
+            } else if (form == ObjectStore.Form.CHUNKS) {
+                if (chunkListCount == chunkListIds.length) {
+                    chunkListIds = Arrays.copyOf(chunkListIds, chunkListCount * 2);
+                }
+                chunkListIds[chunkListCount++] = prefixOf(hash);
+            }
+            if (attributes.lastModifiedTime().toMillis() >= cutoff) {
+                fresh.add(hash);
+            }
+        });
+
+        Arrays.sort(ids, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || ids[unique - 1] != ids[i]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        count = unique;
+        for (int i = 0; i < deltaCount; i++) {
+            deltas.set(Arrays.binarySearch(ids, 0, count, deltaIds[i]));
+        }
+        deltaIds = null;
+        for (int i = 0; i < chunkListCount; i++) {
+            chunkLists.set(Arrays.binarySearch(ids, 0, count, chunkListIds[i]));
+        }
+        chunkListIds = null;
+        for (String hash : fresh) {
+            markObject(hash);
+        }
+    }
+
+    private void markObject(String hash) throws IOException {
+        for (String current = hash; current != null; ) {
+            int id = idOf(current);
+            if (id < 0 || marked.get(id)) {
+                return;
+            }
+            marked.set(id);
+            if (chunkLists.get(id)) {
+                for (String chunk : store.chunksOf(current)) {
+                    markObject(chunk);
+                }
+            }
+            current = deltas.get(id) ? store.baseOf(current) : null;
+        }
+    }
+
+    private int idOf(String hash) {
+        int id = Arrays.binarySearch(ids, 0, count, prefixOf(hash));
+        return id < 0 ? -1 : id;
+    }
+
+    private static long prefixOf(String hash) {
+        return Long.parseUnsignedLong(hash, 0, 16, 16);
+    }
+
+    record Result(int removedObjects, long freedBytes) {
+    }
+}
@@ -1,20 +1,53 @@
 package uj.wmii.pwj.gvt;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class Gvt {
     private static final String GVT_DIR = ".gvt";
     private static final String FILES_DIR = ".gvt/files";
+    private static final String OBJECTS_DIR = ".gvt/objects";
+    private static final String MANIFESTS_DIR = ".gvt/manifests";
+    private static final String VERSION_LOG_FILE = ".gvt/versions.log";
+    private static final String VERSION_INDEX_FILE = ".gvt/versions.idx";
     private static final String VERSIONS_DIR = ".gvt/versions";
     private static final String HEAD_FILE = ".gvt/HEAD";
-    private static final String INDEX_FILE = ".gvt/index.txt";
+    private static final String HEAD_TMP_FILE = ".gvt/HEAD.tmp";
+    private static final String JOURNAL_FILE = ".gvt/journal";
+    private static final String LOCK_FILE = ".gvt/lock";
+    private static final String INIT_STAGING_DIR = ".gvt-init";
+    private static final String LEGACY_INDEX_FILE = ".gvt/index.txt";
+    private static final String INDEX_FILE = ".gvt/index.bin";
+    private static final String CONFIG_FILE = ".gvt/config";
+    private static final String STAT_CACHE_FILE = ".gvt/stat.cache";
+    private static final String SOCKET_FILE = ".gvt/gvt.sock";
+    private static final String SPARSE_FILE = ".gvt/sparse";
+    private static final String RESTORE_SUFFIX = ".gvt-restore";
 
     // Exit codes
     private static final int ERROR_COMMAND_HANDLING = 1;
@@ -25,19 +58,41 @@ public class Gvt {
     private static final int ERROR_COMMIT_NO_FILE = 50;
     private static final int ERROR_COMMIT_FILE_NOT_FOUND = 51;
     private static final int ERROR_INVALID_VERSION = 60;
+    private static final int ERROR_CHECKOUT_FILE_NOT_FOUND = 61;
+    private static final int ERROR_DIFF_FILE_NOT_FOUND = 71;
     private static final int ERROR_NOT_INITIALIZED = -2;
     private static final int ERROR_SYSTEM_PROBLEM = -3;
+    private static final Set<String> PRUNE_OPTIONS = Set.of("--keep-last", "--before");
+    private static final Set<String> OPTIONS = Set.of("--stats", "--jobs");
 
     private final ExitHandler exitHandler;
     private final VersionControl versionControl;
 
     public Gvt(ExitHandler exitHandler) {
+        this(exitHandler, new VersionControl());
+    }
+
+    Gvt(ExitHandler exitHandler, VersionControl versionControl) {
         this.exitHandler = exitHandler;
-        this.versionControl = new VersionControl();
+        this.versionControl = versionControl;
     }
 
     public static void main(String... args) {
-        Gvt gvt = new Gvt(new ExitHandler());
+        main(new ExitHandler(), args);
+    }
+
+    static void main(ExitHandler exitHandler, String... args) {
+        int command = args.length >= 2 && args[0].equals("-C") ? 2 : 0;
+        if (args.length > command && !args[command].equals("serve")) {
+            Path root = command == 0 ? Path.of("") : Path.of(args[1]);
+            OptionalInt exitCode = GvtDaemon.forward(root.resolve(SOCKET_FILE),
+                    Arrays.copyOfRange(args, command, args.length));
+            if (exitCode.isPresent()) {
+                exitHandler.exitOperation(exitCode.getAsInt());
+                return;
+            }
+        }
+        Gvt gvt = new Gvt(exitHandler);
         gvt.mainInternal(args);
     }
 
@@ -46,10 +101,48 @@ public class Gvt {
             exitHandler.exit(ERROR_COMMAND_HANDLING, "Please specify command.");
             return;
         }
+        if (args[0].equals("-C")) {
+            handleDirectory(args);
+            return;
+        }
+
+        // Options are only recognized before the command, so file names and messages are never taken for them.
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean stats = false;
+        int jobs = 0;
+        while (!arguments.isEmpty() && OPTIONS.contains(arguments.get(0))) {
+            String option = arguments.remove(0);
+            if (option.equals("--stats")) {
+                stats = true;
+                continue;
+            }
+            String value = arguments.isEmpty() ? "" : arguments.remove(0);
+            try {
+                jobs = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                jobs = 0;
+            }
+            if (jobs < 1) {
+                exitHandler.exit(ERROR_COMMAND_HANDLING, "Invalid number of jobs: " + value);
+                return;
+            }
+        }
+        if (arguments.isEmpty()) {
+            exitHandler.exit(ERROR_COMMAND_HANDLING, "Please specify command.");
+            return;
+        }
 
-        String command = args[0];
-        String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+        String command = arguments.get(0);
+        String[] commandArgs = arguments.subList(1, arguments.size()).toArray(new String[0]);
+        Gvt gvt = new Gvt(new ReportingExitHandler(exitHandler, command, stats), versionControl);
+        if (jobs > 0) {
+            versionControl.withJobs(jobs, () -> gvt.run(command, commandArgs));
+        } else {
+            gvt.run(command, commandArgs);
+        }
+    }
 
+    private void run(String command, String[] commandArgs) {
         try {
             switch (command) {
                 case "init":
@@ -73,6 +166,30 @@ public class Gvt {
                 case "version":
                     handleVersion(commandArgs);
                     break;
+                case "status":
+                    handleStatus();
+                    break;
+                case "diff":
+                    handleDiff(commandArgs);
+                    break;
+                case "repack":
+                    handleRepack();
+                    break;
+                case "gc":
+                    handleGc();
+                    break;
+                case "prune":
+                    handlePrune(commandArgs);
+                    break;
+                case "serve":
+                    handleServe();
+                    break;
+                case "metrics":
+                    handleMetrics();
+                    break;
+                case "sparse":
+                    handleSparse(commandArgs);
+                    break;
                 default:
                     exitHandler.exit(ERROR_COMMAND_HANDLING, "Unknown command " + command + ".");
                     break;
@@ -82,32 +199,45 @@ public class Gvt {
         }
     }
 
+    private void handleDirectory(String[] args) {
+        if (args.length < 2) {
+            exitHandler.exit(ERROR_COMMAND_HANDLING, "Please specify directory.");
+            return;
+        }
+        Path root = versionControl.root().resolve(args[1]);
+        if (!Files.isDirectory(root)) {
+            exitHandler.exit(ERROR_COMMAND_HANDLING, "Directory not found: " + args[1]);
+            return;
+        }
+        VersionControl target = versionControl.cachesVersions() ? Repository.open(root) : new VersionControl(root);
+        new Gvt(exitHandler, target).mainInternal(Arrays.copyOfRange(args, 2, args.length));
+    }
+
     private void handleInit() {
         try {
             versionControl.init();
             exitHandler.exit(0, "Current directory initialized successfully.");
         } catch (IOException e) {
             handleUnderlyingSystemProblem(e);
-        } catch (IllegalStateException e) {
+        } catch (AlreadyInitializedException e) {
             exitHandler.exit(ERROR_ALREADY_INITIALIZED, e.getMessage());
         }
     }
 
     private void handleAdd(String[] commandArgs) {
         try {
-            if (commandArgs.length == 0) {
+            List<String> fileNames = extractFileNames(commandArgs);
+            if (fileNames.isEmpty()) {
                 exitHandler.exit(ERROR_ADD_NO_FILE, "Please specify file to add.");
                 return;
             }
             String msg = extractMessage(commandArgs);
-            versionControl.add(commandArgs[0], msg);
-            exitHandler.exit(0, "File added successfully. File: " + commandArgs[0]);
-        } catch (IllegalStateException e) {
+            VersionControl.BatchResult result = versionControl.add(fileNames, msg);
+            exitHandler.exit(0, result.describe("File added successfully. File: ", "File already added. File: "));
+        } catch (NotInitializedException e) {
             exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
         } catch (NoSuchFileException e) {
             exitHandler.exit(ERROR_ADD_FILE_NOT_FOUND, e.getMessage());
-        } catch (UnsupportedOperationException e) {
-            exitHandler.exit(0, e.getMessage());
         } catch (IOException e) {
             handleUnderlyingSystemProblem(e);
         }
@@ -119,11 +249,13 @@ public class Gvt {
                 exitHandler.exit(ERROR_DETACH_NO_FILE, "Please specify file to detach.");
                 return;
             }
-            versionControl.detach(commandArgs[0]);
-            versionControl.handleSuccessfulExit(exitHandler);
-        } catch (UnsupportedOperationException e) {
-            exitHandler.exit(0, e.getMessage());
-        } catch (IllegalStateException e) {
+            VersionControl.BatchResult result = versionControl.detach(commandArgs[0]);
+            if (result.processed().isEmpty()) {
+                exitHandler.exit(0, result.describe("", "File is not added to gvt. File: "));
+                return;
+            }
+            exitHandler.exit(0, versionControl.version(result.version()).message().trim());
+        } catch (NotInitializedException e) {
             exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
         } catch (NoSuchFileException e) {
             exitHandler.exit(0, e.getMessage());
@@ -139,14 +271,16 @@ public class Gvt {
                 return;
             }
             String versionToCheckout = commandArgs[0];
-            versionControl.checkout(versionToCheckout);
+            List<String> patterns = Arrays.asList(commandArgs).subList(1, commandArgs.length);
+            VersionControl.CheckoutResult result = versionControl.checkout(parseNumber(versionToCheckout), patterns);
+            exitHandler.summary("Files written: " + result.written() + ", skipped: " + result.skipped());
             exitHandler.exit(0, "Checkout successful for version: " + versionToCheckout);
-        } catch (IllegalStateException e) {
-            if (e.getMessage().startsWith("Current directory is not initialized")) {
-                exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
-            } else {
-                exitHandler.exit(ERROR_INVALID_VERSION, e.getMessage());
-            }
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (InvalidVersionException e) {
+            exitHandler.exit(ERROR_INVALID_VERSION, "Invalid version number: " + commandArgs[0]);
+        } catch (NoSuchFileException e) {
+            exitHandler.exit(ERROR_CHECKOUT_FILE_NOT_FOUND, e.getMessage());
         } catch (IOException e) {
             handleUnderlyingSystemProblem(e);
         }
@@ -154,16 +288,16 @@ public class Gvt {
 
     private void handleCommit(String[] commandArgs) {
         try {
-            if (commandArgs.length == 0) {
+            List<String> fileNames = extractFileNames(commandArgs);
+            if (fileNames.isEmpty()) {
                 exitHandler.exit(ERROR_COMMIT_NO_FILE, "Please specify file to commit.");
                 return;
             }
             String msg = extractMessage(commandArgs);
-            versionControl.commit(commandArgs[0], msg);
-            exitHandler.exit(0, "File committed successfully. File: " + commandArgs[0]);
-        } catch (UnsupportedOperationException e) {
-            exitHandler.exit(0, e.getMessage());
-        } catch (IllegalStateException e) {
+            VersionControl.BatchResult result = versionControl.commit(fileNames, msg);
+            exitHandler.exit(0, result.describe("File committed successfully. File: ",
+                    "File is not added to gvt. File: "));
+        } catch (NotInitializedException e) {
             exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
         } catch (NoSuchFileException e) {
             exitHandler.exit(ERROR_COMMIT_FILE_NOT_FOUND, e.getMessage());
@@ -174,13 +308,14 @@ public class Gvt {
 
     private void handleHistory(String[] commandArgs) {
         try {
-            String n = null;
+            String ans;
             if (commandArgs.length == 2 && commandArgs[0].equals("-last")) {
-                n = commandArgs[1];
+                ans = versionControl.history(Integer.parseInt(commandArgs[1]));
+            } else {
+                ans = versionControl.history();
             }
-            String ans = versionControl.history(n);
             exitHandler.exit(0, ans);
-        } catch (IllegalStateException e) {
+        } catch (NotInitializedException e) {
             exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
         } catch (IOException e) {
             handleUnderlyingSystemProblem(e);
@@ -188,287 +323,1196 @@ public class Gvt {
     }
 
     private void handleVersion(String[] commandArgs) {
+        String versionArg = commandArgs.length == 0 ? null : commandArgs[0];
+        try {
+            VersionControl.VersionInfo version = versionArg == null
+                    ? versionControl.version()
+                    : versionControl.version(parseNumber(versionArg));
+            exitHandler.exit(0, "Version: " + version.number() + "\n" + version.message().trim());
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (InvalidVersionException e) {
+            exitHandler.exit(ERROR_INVALID_VERSION, "Invalid version number: " + versionArg);
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handleStatus() {
         try {
-            String versionArg = commandArgs.length == 0 ? null : commandArgs[0];
-            versionControl.version(versionArg, exitHandler);
-        } catch (IllegalStateException e) {
+            VersionControl.StatusResult status = versionControl.status();
+            exitHandler.exit(0, status.describe());
+        } catch (NotInitializedException e) {
             exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
         } catch (IOException e) {
             handleUnderlyingSystemProblem(e);
         }
     }
 
+    private void handleDiff(String[] commandArgs) {
+        try {
+            if (commandArgs.length < 2) {
+                exitHandler.exit(ERROR_INVALID_VERSION, "Invalid version number: ");
+                return;
+            }
+            String fileName = commandArgs.length > 2 ? commandArgs[2] : null;
+            OutputStream out = new BufferedOutputStream(System.out);
+            int changed = versionControl.diff(parseNumber(commandArgs[0]), parseNumber(commandArgs[1]), fileName, out);
+            out.flush();
+            // stdout carries only the patch, so it can be piped to patch(1)
+            exitHandler.summary(changed == 0 ? "No differences." : "Files changed: " + changed);
+            exitHandler.exitOperation(0);
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (InvalidVersionException e) {
+            String versionArg = e.version() == parseNumber(commandArgs[0]) ? commandArgs[0] : commandArgs[1];
+            exitHandler.exit(ERROR_INVALID_VERSION, "Invalid version number: " + versionArg);
+        } catch (NoSuchFileException e) {
+            exitHandler.exit(ERROR_DIFF_FILE_NOT_FOUND, e.getMessage());
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handleRepack() {
+        try {
+            long bytesSaved = versionControl.repack();
+            exitHandler.exit(0, "Repack finished. Bytes saved: " + bytesSaved);
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handleGc() {
+        try {
+            VersionControl.GcResult result = versionControl.gc();
+            exitHandler.exit(0, result.describe());
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handlePrune(String[] commandArgs) {
+        try {
+            if (commandArgs.length != 2 || !PRUNE_OPTIONS.contains(commandArgs[0])) {
+                exitHandler.exit(ERROR_COMMAND_HANDLING, "Please specify --keep-last <n> or --before <version>.");
+                return;
+            }
+            VersionControl.GcResult result = commandArgs[0].equals("--keep-last")
+                    ? versionControl.pruneKeepLast(parseNumber(commandArgs[1]))
+                    : versionControl.pruneBefore(parseNumber(commandArgs[1]));
+            exitHandler.exit(0, result.describe());
+        } catch (IllegalArgumentException e) {
+            exitHandler.exit(ERROR_COMMAND_HANDLING, "Invalid number of versions to keep: " + commandArgs[1]);
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (InvalidVersionException e) {
+            exitHandler.exit(ERROR_INVALID_VERSION, "Invalid version number: " + commandArgs[1]);
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handleServe() {
+        try {
+            versionControl.validateRepository();
+            Path socketFile = versionControl.root().resolve(SOCKET_FILE);
+            if (GvtDaemon.isRunning(socketFile)) {
+                exitHandler.exit(ERROR_COMMAND_HANDLING, "Server is already running.");
+                return;
+            }
+            versionControl.cacheVersions();
+            new GvtDaemon(socketFile, versionControl).serve();
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handleSparse(String[] commandArgs) {
+        try {
+            String action = commandArgs.length == 0 ? "" : commandArgs[0];
+            List<String> patterns = Arrays.asList(commandArgs).subList(Math.min(1, commandArgs.length),
+                    commandArgs.length);
+            switch (action) {
+                case "set":
+                    if (patterns.isEmpty()) {
+                        exitHandler.exit(ERROR_COMMAND_HANDLING, "Please specify paths to check out.");
+                        return;
+                    }
+                    versionControl.setSparsePatterns(patterns);
+                    exitHandler.exit(0, "Sparse checkout patterns:\n" + String.join("\n", versionControl.sparsePatterns()));
+                    break;
+                case "clear":
+                    versionControl.setSparsePatterns(List.of());
+                    exitHandler.exit(0, "Sparse checkout disabled.");
+                    break;
+                case "list":
+                    List<String> current = versionControl.sparsePatterns();
+                    exitHandler.exit(0, current.isEmpty()
+                            ? "Sparse checkout disabled."
+                            : "Sparse checkout patterns:\n" + String.join("\n", current));
+                    break;
+                default:
+                    exitHandler.exit(ERROR_COMMAND_HANDLING, "Please specify set, list or clear.");
+                    break;
+            }
+        } catch (NotInitializedException e) {
+            exitHandler.exit(ERROR_NOT_INITIALIZED, e.getMessage());
+        } catch (NoSuchFileException e) {
+            exitHandler.exit(ERROR_COMMAND_HANDLING, e.getMessage());
+        } catch (IOException e) {
+            handleUnderlyingSystemProblem(e);
+        }
+    }
+
+    private void handleMetrics() {
+        exitHandler.exit(0, Metrics.snapshot().describe());
+    }
+
+    private static int parseNumber(String number) {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private String extractMessage(String[] commandArgs) {
-        if (commandArgs.length == 3 && commandArgs[1].equals("-m")) {
-            return commandArgs[2];
+        if (commandArgs.length >= 3 && commandArgs[commandArgs.length - 2].equals("-m")) {
+            return commandArgs[commandArgs.length - 1];
         }
         return "";
     }
 
+    private List<String> extractFileNames(String[] commandArgs) {
+        int end = commandArgs.length;
+        if (end >= 2 && commandArgs[end - 2].equals("-m")) {
+            end -= 2;
+        } else if (end >= 1 && commandArgs[end - 1].equals("-m")) {
+            end -= 1;
+        }
+        return Arrays.asList(commandArgs).subList(0, end);
+    }
+
     private void handleUnderlyingSystemProblem(Exception e) {
         e.printStackTrace(System.err);
         exitHandler.exit(ERROR_SYSTEM_PROBLEM, "Underlying system problem. See ERR for details.");
     }
 
+    private static class ReportingExitHandler extends ExitHandler {
+
+        private final ExitHandler target;
+        private final String command;
+        private final boolean stats;
+        private final CommandEvent event = new CommandEvent();
+        private final Metrics.Snapshot before = Metrics.snapshot();
+        private final long start = System.nanoTime();
+        private boolean reported;
+
+        ReportingExitHandler(ExitHandler target, String command, boolean stats) {
+            this.target = target;
+            this.command = command;
+            this.stats = stats;
+            event.begin();
+        }
+
+        @Override
+        void exit(int code, String message) {
+            if (target.terminates()) {
+                super.exit(code, message);
+            } else {
+                target.exit(code, message);
+                report(code);
+            }
+        }
+
+        @Override
+        void exitOperation(int code) {
+            report(code);
+            target.exitOperation(code);
+        }
+
+        @Override
+        boolean terminates() {
+            return target.terminates();
+        }
+
+        @Override
+        void summary(String summary) {
+            target.summary(summary);
+        }
+
+        private void report(int code) {
+            if (reported) {
+                return;
+            }
+            reported = true;
+            Metrics.Snapshot spent = Metrics.snapshot().since(before);
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.exitCode = code;
+                event.bytesRead = spent.bytesRead();
+                event.bytesWritten = spent.bytesWritten();
+                event.filesTouched = spent.filesTouched();
+                event.fsyncs = spent.fsyncs();
+                event.commit();
+            }
+            if (stats) {
+                System.err.println(command + ": " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                System.err.println(spent.describe());
+            }
+        }
+    }
+
     public static class VersionControl {
 
-        public void init() throws IOException, IllegalStateException {
+        private static final int STATUS_BATCH_SIZE = 1024;
+
+        private final Path root;
+        private final VersionLog versionLog;
+        private final ThreadLocal<Integer> commandJobs = new ThreadLocal<>();
+        private RepositoryConfig config;
+        private ObjectStore objectStore;
+        private FileStamp headStamp;
+        private int head;
+        private TrackingIndex trackingIndex;
+        private volatile int jobs;
+
+        public VersionControl() {
+            this(Path.of(""));
+        }
+
+        public VersionControl(Path root) {
+            this.root = root;
+            this.versionLog = new VersionLog(path(VERSION_LOG_FILE), path(VERSION_INDEX_FILE));
+        }
+
+        public Path root() {
+            return root;
+        }
+
+        void cacheVersions() {
+            versionLog.cacheTable();
+        }
+
+        boolean cachesVersions() {
+            return versionLog.cachesTable();
+        }
+
+        public void setJobs(int jobs) {
+            if (jobs < 1) {
+                throw new IllegalArgumentException("Number of jobs must be positive: " + jobs);
+            }
+            this.jobs = jobs;
+        }
+
+        void withJobs(int jobs, Runnable command) {
+            if (jobs < 1) {
+                throw new IllegalArgumentException("Number of jobs must be positive: " + jobs);
+            }
+            Integer previous = commandJobs.get();
+            commandJobs.set(jobs);
+            try {
+                command.run();
+            } finally {
+                if (previous == null) {
+                    commandJobs.remove();
+                } else {
+                    commandJobs.set(previous);
+                }
+            }
+        }
+
+        public void init() throws IOException, AlreadyInitializedException {
             validateRepositoryNotExists();
-            createGvtDirectory();
-            createSubdirectories();
-            initializeRepositoryFiles();
+            File staging = path(INIT_STAGING_DIR).toFile();
+            if (staging.exists()) {
+                deleteRecursively(staging);
+            }
+            Files.createDirectory(staging.toPath());
+
+            VersionControl stagingRepository = new VersionControl(staging.toPath());
+            stagingRepository.createGvtDirectory();
+            stagingRepository.createSubdirectories();
+            stagingRepository.initializeRepositoryFiles();
+
+            Files.move(stagingRepository.path(GVT_DIR), path(GVT_DIR), StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(staging.toPath());
+            Fsync.directory(root.toAbsolutePath());
+        }
+
+        public BatchResult add(String fileName, String msg) throws IOException, NotInitializedException {
+            return add(List.of(fileName), msg);
         }
 
-        public void add(String fileName, String msg) throws IOException, NoSuchFileException,
-                IllegalStateException, UnsupportedOperationException {
+        public BatchResult add(List<String> fileNames, String msg) throws IOException, NoSuchFileException,
+                NotInitializedException {
             validateRepository();
 
-            if (isFileAlreadyTracked(fileName)) {
-                throw new UnsupportedOperationException("File already added. File: " + fileName);
-            }
-            validateFileExists(fileName);
+            List<String> candidates = expandPatterns(fileNames);
+            Map<String, String> storedHashes = new HashMap<>();
+            while (true) {
+                int baseVersion = getCurrentVersion();
+                TrackingIndex trackingIndex = trackingIndex();
+                List<String> toAdd = new ArrayList<>();
+                List<String> alreadyTracked = new ArrayList<>();
+                for (String fileName : candidates) {
+                    if (trackingIndex.contains(fileName)) {
+                        alreadyTracked.add(fileName);
+                    } else {
+                        validateFileExists(fileName);
+                        toAdd.add(fileName);
+                    }
+                }
+                if (toAdd.isEmpty()) {
+                    return new BatchResult(List.of(), alreadyTracked, -1);
+                }
 
-            int newVersion = incrementVersion();
-            copyPreviousVersionFiles(newVersion);
-            addFileToNewVersion(fileName, newVersion);
-            updateIndexFile(fileName);
-            addNewVersion(newVersion, fileName, msg);
+                Tree tree = readTree(baseVersion);
+                for (Map.Entry<String, String> stored : storeFiles(toAdd, storedHashes).entrySet()) {
+                    tree.put(stored.getKey(), stored.getValue());
+                }
+                String message = versionMessage("File added successfully. File: ",
+                        "Files added successfully. Files: ", toAdd, msg);
+                if (publishVersion(baseVersion, writeTree(tree), message, index -> {
+                    for (String fileName : toAdd) {
+                        index.add(fileName);
+                    }
+                })) {
+                    return new BatchResult(toAdd, alreadyTracked, baseVersion + 1);
+                }
+            }
+        }
 
+        public BatchResult commit(String fileName, String msg) throws IOException, NotInitializedException {
+            return commit(List.of(fileName), msg);
         }
 
-        public void commit(String fileName, String msg) throws IOException, IllegalStateException,
-                UnsupportedOperationException {
+        public BatchResult commit(List<String> fileNames, String msg) throws IOException, NoSuchFileException,
+                NotInitializedException {
             validateRepository();
-            validateFileExists(fileName);
 
-            if (!isFileAlreadyTracked(fileName)) {
-                throw new UnsupportedOperationException("File is not added to gvt. File: " + fileName);
+            List<String> candidates = expandPatterns(fileNames);
+            Map<String, String> storedHashes = new HashMap<>();
+            while (true) {
+                int baseVersion = getCurrentVersion();
+                TrackingIndex trackingIndex = trackingIndex();
+                List<String> toCommit = new ArrayList<>();
+                List<String> notTracked = new ArrayList<>();
+                for (String fileName : candidates) {
+                    validateFileExists(fileName);
+                    if (trackingIndex.contains(fileName)) {
+                        toCommit.add(fileName);
+                    } else {
+                        notTracked.add(fileName);
+                    }
+                }
+                if (toCommit.isEmpty()) {
+                    return new BatchResult(List.of(), notTracked, -1);
+                }
+
+                Tree tree = readTree(baseVersion);
+                Map<String, String> previousHashes = new HashMap<>();
+                Map<String, String> hashes = storeFiles(toCommit, storedHashes);
+                for (Map.Entry<String, String> stored : hashes.entrySet()) {
+                    previousHashes.put(stored.getKey(), tree.get(stored.getKey()));
+                    tree.put(stored.getKey(), stored.getValue());
+                }
+                String message = versionMessage("File committed successfully. File: ",
+                        "Files committed successfully. Files: ", toCommit, msg);
+                if (!publishVersion(baseVersion, writeTree(tree), message, index -> {
+                })) {
+                    continue;
+                }
+                if (config().isPacked()) {
+                    try {
+                        deltify(toCommit, hashes, previousHashes);
+                    } catch (IOException e) {
+                        // the version is published either way; the objects stay full until a repack
+                    }
+                }
+                return new BatchResult(toCommit, notTracked, baseVersion + 1);
+            }
+        }
+
+        // Deltas are computed without the lock; publishing them checks again under it, so that
+        // garbage collection cannot drop a base in between.
+        private void deltify(List<String> fileNames, Map<String, String> hashes, Map<String, String> previousHashes)
+                throws IOException {
+            Metrics.Timer timer = Metrics.time(Metrics.Phase.DELTIFY);
+            try {
+                List<ObjectStore.PendingDelta> pending = new ArrayList<>();
+                try {
+                    for (String fileName : fileNames) {
+                        String previousHash = previousHashes.get(fileName);
+                        if (previousHash != null) {
+                            ObjectStore.PendingDelta delta = objectStore().prepareDelta(hashes.get(fileName),
+                                    previousHash, config().maxDeltaChain());
+                            if (delta != null) {
+                                pending.add(delta);
+                            }
+                        }
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+                    try {
+                        while (!pending.isEmpty()) {
+                            objectStore().publishDelta(pending.remove(0));
+                        }
+                    } finally {
+                        lock.close();
+                    }
+                } finally {
+                    for (ObjectStore.PendingDelta delta : pending) {
+                        objectStore().discard(delta);
+                    }
+                }
+            } finally {
+                timer.close();
             }
+        }
 
-            int newVersion = incrementVersion();
-            copyPreviousVersionFiles(newVersion);
-            removeFileFromNewVersion(fileName, newVersion);
-            addFileToNewVersion(fileName, newVersion);
-            commitNewVersion(newVersion, fileName, msg);
+        public BatchResult detach(String fileName) throws IOException, NoSuchFileException, NotInitializedException {
+            validateRepository();
 
+            fileName = normalizeName(fileName);
+            while (true) {
+                int baseVersion = getCurrentVersion();
+                if (!trackingIndex().contains(fileName)) {
+                    return new BatchResult(List.of(), List.of(fileName), -1);
+                }
+                validateFileExists(fileName);
+
+                Tree tree = readTree(baseVersion);
+                tree.remove(fileName);
+                String message = "File detached successfully. File: " + fileName + "\n";
+                String detached = fileName;
+                if (publishVersion(baseVersion, writeTree(tree), message, index -> index.remove(detached))) {
+                    return new BatchResult(List.of(fileName), List.of(), baseVersion + 1);
+                }
+            }
+        }
+
+        public CheckoutResult checkout(int version) throws IOException, InvalidVersionException,
+                NotInitializedException {
+            return checkout(version, List.of());
         }
 
-        public void detach(String fileName) throws IOException, IllegalStateException,
-                NoSuchFileException, UnsupportedOperationException {
+        public CheckoutResult checkout(int version, List<String> patterns) throws IOException,
+                InvalidVersionException, NoSuchFileException, NotInitializedException {
             validateRepository();
+            validateVersion(version);
+
+            PathFilter requested = pathFilter(patterns);
+            PathFilter sparse = sparseFilter();
+            Map<String, String> manifest = readManifest(version);
+            String unmatched = requested.firstUnmatched(manifest.keySet());
+            if (unmatched != null) {
+                throw new NoSuchFileException("File not found. File: " + unmatched);
+            }
 
-            if (!isFileAlreadyTracked(fileName)) {
-                throw new UnsupportedOperationException("File is not added to gvt. File: " + fileName);
+            StatCache statCache = StatCache.load(path(STAT_CACHE_FILE));
+            ObjectStore store = objectStore();
+            List<ParallelIo.IoTask<Boolean>> restores = new ArrayList<>();
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                if (!requested.matches(entry.getKey()) || !sparse.matches(entry.getKey())) {
+                    continue;
+                }
+                restores.add(() -> {
+                    Path workingFile = path(entry.getKey());
+                    if (entry.getValue().equals(statCache.hashOf(workingFile))) {
+                        return false;
+                    }
+                    if (workingFile.getParent() != null) {
+                        Files.createDirectories(workingFile.getParent());
+                    }
+                    // The file is restored next to its target and renamed into place, so the stat
+                    // cache records attributes no later edit of the working file can have.
+                    Path restored = workingFile.resolveSibling("." + workingFile.getFileName() + "."
+                            + Long.toHexString(ThreadLocalRandom.current().nextLong()) + RESTORE_SUFFIX);
+                    try {
+                        store.restore(entry.getValue(), restored);
+                        BasicFileAttributes attributes = Files.readAttributes(restored, BasicFileAttributes.class);
+                        Files.move(restored, workingFile, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                        statCache.record(workingFile, attributes, entry.getValue());
+                    } finally {
+                        Files.deleteIfExists(restored);
+                    }
+                    Metrics.fileTouched();
+                    return true;
+                });
             }
-            validateFileExists(fileName);
 
-            int newVersion = incrementVersion();
-            copyPreviousVersionFiles(newVersion);
-            removeFileFromNewVersion(fileName, newVersion);
-            removeFileFromIndex(fileName);
-            addNewVersionDetach(newVersion, fileName);
+            List<Boolean> results;
+            Metrics.Timer timer = Metrics.time(Metrics.Phase.RESTORE);
+            try (ParallelIo io = parallelIo()) {
+                results = io.run(restores);
+            } finally {
+                timer.close();
+                statCache.save();
+            }
+            int written = (int) results.stream().filter(Boolean::booleanValue).count();
+            return new CheckoutResult(written, results.size() - written);
+        }
 
+        public List<String> sparsePatterns() throws IOException, NotInitializedException {
+            validateRepository();
+            return sparseFilter().patterns();
         }
 
-        public void checkout(String versionString) throws IOException, IllegalStateException {
+        public void setSparsePatterns(List<String> patterns) throws IOException, NoSuchFileException,
+                NotInitializedException {
             validateRepository();
+            PathFilter filter = pathFilter(patterns);
+            if (filter.matchesAll()) {
+                Files.deleteIfExists(path(SPARSE_FILE));
+                return;
+            }
+            Path tmp = Files.createTempFile(path(GVT_DIR), "sparse-", ".tmp");
+            try {
+                Files.write(tmp, filter.patterns());
+                Files.move(tmp, path(SPARSE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
 
-            int version = parseVersion(versionString);
-            File targetVersionDir = new File(FILES_DIR, versionString);
+        public StatusResult status() throws IOException, NotInitializedException {
+            validateRepository();
 
-            if (version < 0 || !targetVersionDir.isDirectory()) {
-                throw new IllegalStateException("Invalid version number: " + versionString);
+            PathFilter sparse = sparseFilter();
+            List<Map.Entry<String, String>> tracked = Tree.files(this::treeEntries,
+                    versionLog.manifestHash(getCurrentVersion()));
+            if (!sparse.matchesAll()) {
+                tracked = tracked.stream().filter(entry -> sparse.matches(entry.getKey())).toList();
+            }
+            StatCache statCache = StatCache.load(path(STAT_CACHE_FILE));
+            List<ParallelIo.IoTask<StatusResult>> batches = new ArrayList<>();
+            for (int from = 0; from < tracked.size(); from += STATUS_BATCH_SIZE) {
+                List<Map.Entry<String, String>> batch = tracked.subList(from,
+                        Math.min(from + STATUS_BATCH_SIZE, tracked.size()));
+                batches.add(() -> {
+                    List<String> modified = new ArrayList<>();
+                    List<String> deleted = new ArrayList<>();
+                    for (Map.Entry<String, String> entry : batch) {
+                        String hash = statCache.hashOf(path(entry.getKey()));
+                        if (hash == null) {
+                            deleted.add(entry.getKey());
+                        } else if (!hash.equals(entry.getValue())) {
+                            modified.add(entry.getKey());
+                        }
+                    }
+                    return new StatusResult(modified, deleted);
+                });
             }
 
-            File[] filesToRestore = targetVersionDir.listFiles();
-            if (filesToRestore == null) {
-                return;
+            List<StatusResult> results;
+            Metrics.Timer timer = Metrics.time(Metrics.Phase.STATUS_SCAN);
+            try (ParallelIo io = parallelIo()) {
+                results = io.run(batches);
+            } finally {
+                timer.close();
+                statCache.save();
             }
+            List<String> modified = new ArrayList<>();
+            List<String> deleted = new ArrayList<>();
+            for (StatusResult result : results) {
+                modified.addAll(result.modified());
+                deleted.addAll(result.deleted());
+            }
+            Collections.sort(modified);
+            Collections.sort(deleted);
+            return new StatusResult(modified, deleted);
+        }
 
-            for (File fileInStorage : filesToRestore) {
-                File destinationFile = new File(fileInStorage.getName());
-                Files.copy(fileInStorage.toPath(), destinationFile.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING);
+        public int diff(int fromVersion, int toVersion, String fileName, OutputStream out)
+                throws IOException, InvalidVersionException, NotInitializedException {
+            validateRepository();
+            validateVersion(fromVersion);
+            validateVersion(toVersion);
+
+            UnifiedDiff diff = new UnifiedDiff(objectStore(), out);
+            int[] changed = {0};
+            Tree.ChangeVisitor changes = (path, oldHash, newHash) -> {
+                diff.file(path, oldHash, newHash);
+                changed[0]++;
+            };
+            if (fileName == null) {
+                Tree.compare(this::treeEntries, versionLog.manifestHash(fromVersion),
+                        versionLog.manifestHash(toVersion), changes);
+            } else {
+                String name = normalizeName(fileName);
+                String oldHash = readTree(fromVersion).get(name);
+                String newHash = readTree(toVersion).get(name);
+                if (oldHash == null && newHash == null) {
+                    throw new NoSuchFileException("File not found. File: " + fileName);
+                }
+                if (!Objects.equals(oldHash, newHash)) {
+                    changes.changed(name, oldHash, newHash);
+                }
             }
+            return changed[0];
+        }
+
+        public String history() throws IOException, NotInitializedException {
+            return history(Integer.MAX_VALUE);
         }
 
-        public String history(String n) throws IOException, IllegalStateException {
+        public String history(int last) throws IOException, NotInitializedException {
             validateRepository();
 
             int currentVersion = getCurrentVersion();
-            int startVersion = calculateStartVersion(currentVersion, n);
+            int startVersion = (int) Math.max(0, (long) currentVersion - last + 1);
+
+            return versionLog.history(Math.max(startVersion, versionLog.first()), currentVersion);
+        }
 
-            StringBuilder history = new StringBuilder();
-            for (int i = currentVersion; i >= startVersion; i--) {
-                File versionFile = new File(VERSIONS_DIR, i + ".txt");
-                String versionContent = Files.readAllLines(versionFile.toPath()).get(0).trim();
-                history.append(i).append(": ").append(versionContent).append("\n");
+        public VersionInfo version() throws IOException, NotInitializedException {
+            validateRepository();
+
+            return version(getCurrentVersion());
+        }
+
+        public VersionInfo version(int version) throws IOException, InvalidVersionException, NotInitializedException {
+            validateRepository();
+            validateVersion(version);
+
+            VersionLog.VersionRecord record = versionLog.read(version);
+            return new VersionInfo(record.number(), record.timestamp(), record.message());
+        }
+
+        public long repack() throws IOException, NotInitializedException {
+            validateRepository();
+
+            Map<String, String> previousRevisions = new HashMap<>();
+            Set<String> processed = new HashSet<>();
+            long bytesSaved = 0;
+
+            RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+            try {
+                int currentVersion = getCurrentVersion();
+                for (int version = versionLog.first(); version <= currentVersion; version++) {
+                    for (Map.Entry<String, String> entry : readManifest(version).entrySet()) {
+                        String hash = entry.getValue();
+                        String previousHash = previousRevisions.put(entry.getKey(), hash);
+                        if (previousHash != null && processed.add(hash)) {
+                            bytesSaved += objectStore().deltify(hash, previousHash, config().maxDeltaChain());
+                        }
+                    }
+                }
+            } finally {
+                lock.close();
+            }
+            return bytesSaved;
+        }
+
+        public GcResult gc() throws IOException, NotInitializedException {
+            validateRepository();
+
+            RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+            try {
+                return collectGarbage(0);
+            } finally {
+                lock.close();
             }
-            return history.toString();
         }
 
-        public void version(String versionString, ExitHandler exitHandler) throws IOException {
+        public GcResult pruneKeepLast(int keep) throws IOException, NotInitializedException {
             validateRepository();
 
-            int version = (versionString == null) ? getCurrentVersion() : parseVersion(versionString);
-            File versionFile = new File(VERSIONS_DIR, version + ".txt");
-            String versionContent = Files.readString(versionFile.toPath()).trim();
+            if (keep < 1) {
+                throw new IllegalArgumentException("Invalid number of versions to keep: " + keep);
+            }
+            RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+            try {
+                return prune(Math.max(0, getCurrentVersion() - keep + 1));
+            } finally {
+                lock.close();
+            }
+        }
+
+        public GcResult pruneBefore(int version) throws IOException, InvalidVersionException,
+                NotInitializedException {
+            validateRepository();
 
-            exitHandler.exit(0, "Version: " + version + "\n" + versionContent);
+            RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+            try {
+                if (version < 0 || version > getCurrentVersion()) {
+                    throw new InvalidVersionException(version);
+                }
+                return prune(version);
+            } finally {
+                lock.close();
+            }
         }
 
-        private void validateRepositoryNotExists() throws IllegalStateException {
-            File gvtDir = new File(GVT_DIR);
+        private void validateRepositoryNotExists() throws AlreadyInitializedException {
+            File gvtDir = path(GVT_DIR).toFile();
             if (gvtDir.exists()) {
-                throw new IllegalStateException("Current directory is already initialized.");
+                throw new AlreadyInitializedException(root);
             }
         }
 
-        private void validateRepository() throws IllegalStateException {
-            File gvtDir = new File(GVT_DIR);
-            if (!gvtDir.exists()) {
-                throw new IllegalStateException("Current directory is not initialized. Please use init command to initialize.");
+        void validateRepository() throws IOException, NotInitializedException {
+            Metrics.Timer timer = Metrics.time(Metrics.Phase.VALIDATE);
+            try {
+                File gvtDir = path(GVT_DIR).toFile();
+                if (!gvtDir.exists()) {
+                    throw new NotInitializedException(root);
+                }
+                recoverInterruptedVersion();
+                migrateLegacyFormats();
+            } finally {
+                timer.close();
+            }
+        }
+
+        private void validateVersion(int version) throws IOException, InvalidVersionException {
+            if (!versionLog.contains(version)) {
+                throw new InvalidVersionException(version);
             }
         }
 
         private void validateFileExists(String fileName) throws NoSuchFileException {
-            File file = new File(fileName);
+            File file = path(fileName).toFile();
             if (!file.exists()) {
                 throw new NoSuchFileException("File not found. File: " + fileName);
             }
         }
 
         private void createGvtDirectory() throws IOException {
-            File gvtDir = new File(GVT_DIR);
+            File gvtDir = path(GVT_DIR).toFile();
             if (!gvtDir.mkdir()) {
                 throw new IOException("Failed to create .gvt directory.");
             }
         }
 
         private void createSubdirectories() {
-            new File(VERSIONS_DIR).mkdir();
-            new File(FILES_DIR).mkdir();
-            new File(FILES_DIR, "0").mkdir();
+            path(OBJECTS_DIR).toFile().mkdir();
         }
 
         private void initializeRepositoryFiles() throws IOException {
-            Files.writeString(new File(HEAD_FILE).toPath(), "0");
-            Files.writeString(new File(VERSIONS_DIR, "0.txt").toPath(), "GVT initialized.");
-            Files.writeString(new File(INDEX_FILE).toPath(), "");
+            RepositoryConfig.writeDefaults(path(CONFIG_FILE));
+            versionLog.create();
+            TrackingIndex.create(path(INDEX_FILE));
+            String manifestHash = writeManifest(new TreeMap<>());
+            try (ParallelIo io = parallelIo()) {
+                List<Path> files = new ArrayList<>(objectStore().takeUnsynced());
+                files.add(path(CONFIG_FILE));
+                files.add(path(INDEX_FILE));
+                Fsync.all(files, List.of(path(OBJECTS_DIR)), io);
+            }
+            versionLog.append(new VersionLog.VersionRecord(0, System.currentTimeMillis(), manifestHash,
+                    "GVT initialized."));
+            writeHead(0);
+        }
+
+        private synchronized int getCurrentVersion() throws IOException {
+            FileStamp stamp = FileStamp.of(path(HEAD_FILE));
+            if (!stamp.equals(headStamp)) {
+                head = Integer.parseInt(Files.readString(path(HEAD_FILE)).trim());
+                headStamp = stamp;
+            }
+            return head;
+        }
+
+        private void writeHead(int version) throws IOException {
+            Path tmp = path(HEAD_TMP_FILE);
+            Files.writeString(tmp, String.valueOf(version));
+            Fsync.file(tmp);
+            Files.move(tmp, path(HEAD_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Fsync.directory(path(GVT_DIR));
+        }
+
+        private Path path(String name) {
+            return root.resolve(name);
+        }
+
+        private synchronized RepositoryConfig config() throws IOException {
+            if (config == null) {
+                config = RepositoryConfig.load(path(CONFIG_FILE));
+            }
+            return config;
+        }
+
+        private synchronized TrackingIndex trackingIndex() throws IOException {
+            if (trackingIndex == null || !trackingIndex.isCurrent()) {
+                trackingIndex = TrackingIndex.load(path(INDEX_FILE));
+            }
+            return trackingIndex;
+        }
+
+        int jobs() throws IOException {
+            Integer commandJobs = this.commandJobs.get();
+            if (commandJobs != null) {
+                return commandJobs;
+            }
+            return jobs > 0 ? jobs : config().ioJobs();
+        }
+
+        private ParallelIo parallelIo() throws IOException {
+            return new ParallelIo(jobs());
+        }
+
+        private synchronized ObjectStore objectStore() throws IOException {
+            if (objectStore == null) {
+                objectStore = new ObjectStore(path(OBJECTS_DIR), config().codec());
+            }
+            return objectStore;
+        }
+
+        private Map<String, String> readManifest(int version) throws IOException {
+            return Tree.flatten(this::treeEntries, versionLog.manifestHash(version));
         }
 
-        private boolean isFileAlreadyTracked(String fileName) throws IOException {
-            File indexFile = new File(INDEX_FILE);
-            List<String> trackedFiles = Arrays.asList(Files.readString(indexFile.toPath()).split("\n"));
-            return trackedFiles.contains(fileName);
+        private Tree readTree(int version) throws IOException {
+            return Tree.load(this::treeEntries, versionLog.manifestHash(version));
         }
 
-        private int getCurrentVersion() throws IOException {
-            return Integer.parseInt(Files.readString(new File(HEAD_FILE).toPath()).trim());
+        private Map<String, String> treeEntries(String hash) throws IOException {
+            return objectStore().readTree(hash);
         }
 
-        private int incrementVersion() throws IOException {
-            int newVersion = getCurrentVersion() + 1;
-            Files.writeString(new File(HEAD_FILE).toPath(), String.valueOf(newVersion));
-            return newVersion;
+        private String writeManifest(Map<String, String> manifest) throws IOException {
+            Tree tree = Tree.empty(this::treeEntries);
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                tree.put(entry.getKey(), entry.getValue());
+            }
+            return tree.write(objectStore());
         }
 
-        private int parseVersion(String versionString) {
+        private String writeTree(Tree tree) throws IOException {
+            Metrics.Timer timer = Metrics.time(Metrics.Phase.METADATA_WRITE);
             try {
-                return Integer.parseInt(versionString);
-            } catch (NumberFormatException e) {
-                throw new IllegalStateException("Invalid version number: " + versionString);
+                return tree.write(objectStore());
+            } finally {
+                timer.close();
             }
         }
 
-        private int calculateStartVersion(int currentVersion, String n) {
-            return (n == null) ? 0 : currentVersion - Integer.parseInt(n) + 1;
+        private String normalizeName(String fileName) throws NoSuchFileException {
+            Path name = Path.of(fileName).normalize();
+            if (name.isAbsolute() || name.startsWith("..") || name.toString().isEmpty()) {
+                throw new NoSuchFileException("File not found. File: " + fileName);
+            }
+            return name.toString().replace(File.separatorChar, '/');
         }
 
-        private void copyPreviousVersionFiles(int newVersion) throws IOException {
-            File newVersionDir = new File(FILES_DIR, String.valueOf(newVersion));
-            newVersionDir.mkdirs();
+        private Map<String, String> storeFiles(List<String> fileNames, Map<String, String> storedHashes)
+                throws IOException {
+            List<String> toStore = fileNames.stream().filter(fileName -> !storedHashes.containsKey(fileName)).toList();
+            StatCache statCache = StatCache.load(path(STAT_CACHE_FILE));
+            ObjectStore store = objectStore();
+            boolean chunked = config().isChunked();
+            List<ParallelIo.IoTask<String>> snapshots = new ArrayList<>();
+            for (String fileName : toStore) {
+                snapshots.add(() -> {
+                    Path file = path(fileName);
+                    // Read before the content, so an edit made while the file is stored is noticed next time.
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    String hash = statCache.cachedHash(file, attributes);
+                    if (hash == null || !store.touch(hash)) {
+                        hash = chunked ? store.storeChunked(file) : store.store(file);
+                        statCache.record(file, attributes, hash);
+                        Metrics.fileTouched();
+                    }
+                    return hash;
+                });
+            }
+            List<String> hashes;
+            Metrics.Timer timer = Metrics.time(Metrics.Phase.SNAPSHOT);
+            try (ParallelIo io = parallelIo()) {
+                hashes = io.run(snapshots);
+            } finally {
+                timer.close();
+                statCache.save();
+            }
+            for (int i = 0; i < toStore.size(); i++) {
+                storedHashes.put(toStore.get(i), hashes.get(i));
+            }
+            Map<String, String> result = new HashMap<>();
+            for (String fileName : fileNames) {
+                result.put(fileName, storedHashes.get(fileName));
+            }
+            return result;
+        }
 
-            File previousVersionDir = new File(FILES_DIR, String.valueOf(newVersion - 1));
-            if (!previousVersionDir.exists()) {
-                return;
+        private PathFilter pathFilter(List<String> patterns) throws NoSuchFileException {
+            List<String> normalized = new ArrayList<>();
+            for (String pattern : patterns) {
+                normalized.add(PathFilter.isGlob(pattern) ? pattern : normalizeName(pattern));
             }
+            return PathFilter.of(normalized);
+        }
 
-            File[] files = previousVersionDir.listFiles();
-            if (files == null) {
-                return;
+        private PathFilter sparseFilter() throws IOException {
+            try {
+                return PathFilter.of(Files.readAllLines(path(SPARSE_FILE)));
+            } catch (NoSuchFileException e) {
+                return PathFilter.ALL;
             }
+        }
 
-            for (File file : files) {
-                if (file.isFile()) {
-                    Files.copy(file.toPath(),
-                            new File(newVersionDir, file.getName()).toPath(),
-                            StandardCopyOption.REPLACE_EXISTING);
+        private List<String> expandPatterns(List<String> patterns) throws IOException {
+            Set<String> fileNames = new LinkedHashSet<>();
+            for (String pattern : patterns) {
+                if (!PathFilter.isGlob(pattern)) {
+                    fileNames.add(normalizeName(pattern));
+                    continue;
+                }
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                int maxDepth = pattern.contains("**")
+                        ? Integer.MAX_VALUE
+                        : (int) pattern.chars().filter(c -> c == '/').count() + 1;
+                List<String> matches;
+                try (Stream<Path> files = Files.walk(root, maxDepth)) {
+                    matches = files.filter(Files::isRegularFile)
+                            .map(root::relativize)
+                            .filter(file -> !file.startsWith(GVT_DIR) && !file.startsWith(INIT_STAGING_DIR))
+                            .filter(matcher::matches)
+                            .map(file -> file.toString().replace(File.separatorChar, '/'))
+                            .sorted()
+                            .toList();
+                }
+                if (matches.isEmpty()) {
+                    throw new NoSuchFileException("File not found. File: " + pattern);
                 }
+                fileNames.addAll(matches);
             }
+            return new ArrayList<>(fileNames);
         }
 
-        private void addFileToNewVersion(String fileName, int newVersion) throws IOException {
-            File sourceFile = new File(fileName);
-            File targetFile = new File(new File(FILES_DIR, String.valueOf(newVersion)), fileName);
-            Files.copy(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // Objects are forced before the lock is taken; appending to the version log is the commit point.
+        private boolean publishVersion(int baseVersion, String manifestHash, String message, IndexUpdate indexUpdate)
+                throws IOException {
+            Metrics.Timer syncTimer = Metrics.time(Metrics.Phase.OBJECT_SYNC);
+            try (ParallelIo io = parallelIo()) {
+                Fsync.all(objectStore().takeUnsynced(), List.of(path(OBJECTS_DIR)), io);
+            } finally {
+                syncTimer.close();
+            }
+            RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+            try {
+                if (getCurrentVersion() != baseVersion) {
+                    return false;
+                }
+                int version = baseVersion + 1;
+                Path journal = path(JOURNAL_FILE);
+                Metrics.Timer logTimer = Metrics.time(Metrics.Phase.METADATA_WRITE);
+                try {
+                    Files.writeString(journal, String.valueOf(version));
+                    Fsync.file(journal);
+                    Fsync.directory(path(GVT_DIR));
+
+                    versionLog.append(new VersionLog.VersionRecord(version, System.currentTimeMillis(),
+                            manifestHash, message));
+                } finally {
+                    logTimer.close();
+                }
+                Metrics.Timer indexTimer = Metrics.time(Metrics.Phase.INDEX_UPDATE);
+                try {
+                    TrackingIndex index = trackingIndex();
+                    indexUpdate.apply(index);
+                    index.save();
+                } finally {
+                    indexTimer.close();
+                }
+                Metrics.Timer headTimer = Metrics.time(Metrics.Phase.METADATA_WRITE);
+                try {
+                    writeHead(version);
+                    Files.delete(journal);
+                } finally {
+                    headTimer.close();
+                }
+                return true;
+            } finally {
+                lock.close();
+            }
         }
 
-        private void removeFileFromNewVersion(String fileName, int newVersion) throws IOException {
-            File fileToRemove = new File(new File(FILES_DIR, String.valueOf(newVersion)), fileName);
-            if (fileToRemove.exists()) {
-                Files.delete(fileToRemove.toPath());
+        private GcResult prune(int firstRetained) throws IOException {
+            int pruned = Math.max(0, firstRetained - versionLog.first());
+            if (pruned > 0) {
+                versionLog.pruneBefore(firstRetained);
             }
+            return collectGarbage(pruned);
         }
 
-        private void updateIndexFile(String fileName) throws IOException {
-            File indexFile = new File(INDEX_FILE);
-            String currentContent = Files.readString(indexFile.toPath());
-            Files.writeString(indexFile.toPath(), currentContent + fileName + "\n",
-                    StandardOpenOption.CREATE);
+        private GcResult collectGarbage(int prunedVersions) throws IOException {
+            GarbageCollector collector = GarbageCollector.scan(objectStore(), this::treeEntries,
+                    config().gcGracePeriod());
+            VersionTable versions = versionLog.table();
+            for (int version = versions.first(); version < versions.end(); version++) {
+                collector.markTree(versions.manifestHash(version));
+            }
+            GarbageCollector.Result result = collector.sweep();
+            return new GcResult(prunedVersions, result.removedObjects(), result.freedBytes());
         }
 
-        private void removeFileFromIndex(String fileName) throws IOException {
-            File indexFile = new File(INDEX_FILE);
-            String currentContent = Files.readString(indexFile.toPath());
-            String updatedContent = currentContent.replace(fileName + "\n", "");
-            Files.writeString(indexFile.toPath(), updatedContent);
+        // Writers hold the lock while the journal exists, so it is only interrupted when the lock is free.
+        private void recoverInterruptedVersion() throws IOException {
+            Path journal = path(JOURNAL_FILE);
+            if (!Files.exists(journal)) {
+                return;
+            }
+            try (RepositoryLock lock = RepositoryLock.tryAcquire(path(LOCK_FILE))) {
+                if (lock != null && Files.exists(journal)) {
+                    recoverInterruptedVersion(journal);
+                }
+            }
         }
 
-        private void addNewVersion(int newVersion, String fileName, String msg) throws IOException {
-            File newVersionFile = new File(VERSIONS_DIR, newVersion + ".txt");
-            newVersionFile.createNewFile();
+        private void recoverInterruptedVersion(Path journal) throws IOException {
+            versionLog.repair();
+            int pendingVersion;
+            try {
+                pendingVersion = Integer.parseInt(Files.readString(journal).trim());
+            } catch (NumberFormatException e) {
+                pendingVersion = -1;
+            }
+            if (pendingVersion > getCurrentVersion() && versionLog.contains(pendingVersion)) {
+                writeHead(pendingVersion);
+            }
+            TrackingIndex.rewrite(path(INDEX_FILE), readManifest(getCurrentVersion()).keySet());
+            Files.delete(journal);
+        }
+
+        // Checked without the lock; the migrations check again under it.
+        private void migrateLegacyFormats() throws IOException {
+            if (!Files.isDirectory(path(VERSIONS_DIR)) && !Files.exists(path(LEGACY_INDEX_FILE))) {
+                return;
+            }
+            RepositoryLock lock = RepositoryLock.acquire(path(LOCK_FILE));
+            try {
+                migrateLegacyLayout();
+                migrateLegacyIndex();
+            } finally {
+                lock.close();
+            }
+        }
+
+        private void migrateLegacyLayout() throws IOException {
+            File versionsDir = path(VERSIONS_DIR).toFile();
+            if (!versionsDir.isDirectory()) {
+                return;
+            }
+            File filesDir = path(FILES_DIR).toFile();
+            File manifestsDir = path(MANIFESTS_DIR).toFile();
+            path(OBJECTS_DIR).toFile().mkdir();
+            if (!Files.exists(path(VERSION_INDEX_FILE))) {
+                versionLog.create();
+            } else {
+                versionLog.repair();
+            }
+
+            int currentVersion = getCurrentVersion();
+            for (int version = versionLog.size(); version <= currentVersion; version++) {
+                Map<String, String> manifest = new TreeMap<>();
+                File legacyManifest = new File(manifestsDir, version + ".txt");
+                File[] files = new File(filesDir, String.valueOf(version)).listFiles(File::isFile);
+                if (files != null) {
+                    ObjectStore store = objectStore();
+                    List<ParallelIo.IoTask<String>> snapshots = new ArrayList<>();
+                    for (File file : files) {
+                        snapshots.add(() -> store.store(file.toPath()));
+                    }
+                    List<String> hashes;
+                    try (ParallelIo io = parallelIo()) {
+                        hashes = io.run(snapshots);
+                    }
+                    for (int i = 0; i < files.length; i++) {
+                        manifest.put(files[i].getName(), hashes.get(i));
+                    }
+                } else if (legacyManifest.isFile()) {
+                    manifest = Tree.parse(Files.readString(legacyManifest.toPath()));
+                }
+                File versionFile = new File(versionsDir, version + ".txt");
+                versionLog.append(new VersionLog.VersionRecord(version, versionFile.lastModified(),
+                        writeManifest(manifest), Files.readString(versionFile.toPath())));
+            }
+            for (File legacyDir : new File[]{filesDir, manifestsDir, versionsDir}) {
+                if (legacyDir.exists()) {
+                    deleteRecursively(legacyDir);
+                }
+            }
+        }
 
-            String versionMsg = msg.isEmpty()
-                    ? "File added successfully. File: " + fileName
-                    : msg + "\n";
+        private void migrateLegacyIndex() throws IOException {
+            Path legacyIndex = path(LEGACY_INDEX_FILE);
+            if (Files.exists(legacyIndex)) {
+                TrackingIndex.migrate(legacyIndex, path(INDEX_FILE));
+            }
+        }
 
-            Files.writeString(newVersionFile.toPath(), versionMsg);
+        private void deleteRecursively(File file) throws IOException {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+            Files.delete(file.toPath());
         }
 
-        private void commitNewVersion(int newVersion, String fileName, String msg) throws IOException {
-            File newVersionFile = new File(VERSIONS_DIR, newVersion + ".txt");
-            newVersionFile.createNewFile();
+        private String versionMessage(String single, String batch, List<String> fileNames, String msg) {
+            if (!msg.isEmpty()) {
+                return msg + "\n";
+            }
+            return fileNames.size() == 1 ? single + fileNames.get(0) : batch + String.join(", ", fileNames);
+        }
 
-            String versionMsg = msg.isEmpty()
-                    ? "File committed successfully. File: " + fileName
-                    : msg + "\n";
+        @FunctionalInterface
+        private interface IndexUpdate {
+            void apply(TrackingIndex index) throws IOException;
+        }
 
-            Files.writeString(newVersionFile.toPath(), versionMsg);
+        public record CheckoutResult(int written, int skipped) {
         }
 
-        private void addNewVersionDetach(int newVersion, String fileName) throws IOException {
-            File newVersionFile = new File(VERSIONS_DIR, newVersion + ".txt");
-            newVersionFile.createNewFile();
-            Files.writeString(newVersionFile.toPath(),
-                    "File detached successfully. File: " + fileName + "\n");
+        public record VersionInfo(int number, long timestamp, String message) {
         }
 
-        private void handleSuccessfulExit(ExitHandler exitHandler) throws IOException {
-            int version = getCurrentVersion();
-            File versionFile = new File(VERSIONS_DIR, version + ".txt");
-            String versionContent = Files.readString(versionFile.toPath()).trim();
-            exitHandler.exit(0, versionContent);
+        public record GcResult(int prunedVersions, int removedObjects, long freedBytes) {
+
+            String describe() {
+                String objects = "Objects removed: " + removedObjects + ", bytes freed: " + freedBytes;
+                return prunedVersions == 0 ? objects : "Versions pruned: " + prunedVersions + "\n" + objects;
+            }
+        }
+
+        public record StatusResult(List<String> modified, List<String> deleted) {
+
+            String describe() {
+                if (modified.isEmpty() && deleted.isEmpty()) {
+                    return "No changes.";
+                }
+                StringJoiner lines = new StringJoiner("\n");
+                modified.forEach(fileName -> lines.add("Modified: " + fileName));
+                deleted.forEach(fileName -> lines.add("Deleted: " + fileName));
+                return lines.toString();
+            }
+        }
+
+        public record BatchResult(List<String> processed, List<String> skipped, int version) {
+
+            String describe(String processedMessage, String skippedMessage) {
+                if (processed.isEmpty()) {
+                    return skipped.isEmpty() ? "" : skippedMessage + skipped.get(0);
+                }
+                StringJoiner lines = new StringJoiner("\n");
+                processed.forEach(fileName -> lines.add(processedMessage + fileName));
+                skipped.forEach(fileName -> lines.add(skippedMessage + fileName));
+                return lines.toString();
+            }
         }
     }
 }
\ No newline at end of file
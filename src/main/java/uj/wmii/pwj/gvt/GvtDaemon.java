@@ -0,0 +1,184 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+class GvtDaemon {
+
+    private static final String CONNECTION_LOST_MESSAGE = "Underlying system problem. See ERR for details.";
+    private static final int CONNECTION_LOST_EXIT_CODE = -3;
+
+    private final Path socketFile;
+    private final Gvt.VersionControl versionControl;
+    private volatile ServerSocketChannel server;
+
+    GvtDaemon(Path socketFile, Gvt.VersionControl versionControl) {
+        this.socketFile = socketFile;
+        this.versionControl = versionControl;
+    }
+
+    static OptionalInt forward(Path socketFile, String... args) {
+        if (!Files.exists(socketFile)) {
+            return OptionalInt.empty();
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socketFile));
+        } catch (IOException e) {
+            return OptionalInt.empty();
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                writeString(out, arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            int exitCode = in.readInt();
+            System.out.print(readString(in));
+            System.err.print(readString(in));
+            return OptionalInt.of(exitCode);
+        } catch (IOException e) {
+            // The daemon may already have executed the command, so it must not be run again locally.
+            e.printStackTrace(System.err);
+            System.out.println(CONNECTION_LOST_MESSAGE);
+            return OptionalInt.of(CONNECTION_LOST_EXIT_CODE);
+        }
+    }
+
+    static boolean isRunning(Path socketFile) {
+        if (!Files.exists(socketFile)) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketFile)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void serve() throws IOException {
+        Files.deleteIfExists(socketFile);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            this.server = server;
+            server.bind(UnixDomainSocketAddress.of(socketFile));
+            Runtime.getRuntime().addShutdownHook(new Thread(this::removeSocket));
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                try (client) {
+                    handle(client);
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+        } finally {
+            removeSocket();
+        }
+    }
+
+    void stop() throws IOException {
+        ServerSocketChannel server = this.server;
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        int argc;
+        try {
+            argc = in.readInt();
+        } catch (EOFException e) {
+            return;
+        }
+        String[] args = new String[argc];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readString(in);
+        }
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        CapturingExitHandler exitHandler = new CapturingExitHandler();
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        try {
+            System.setOut(new PrintStream(stdout, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(stderr, true, StandardCharsets.UTF_8));
+            if (args.length > 0 && args[0].equals("serve")) {
+                exitHandler.exit(1, "Server is already running.");
+            } else {
+                new Gvt(exitHandler, versionControl).mainInternal(args);
+            }
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
+
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+        out.writeInt(exitHandler.exitCode);
+        writeString(out, stdout.toString(StandardCharsets.UTF_8));
+        writeString(out, stderr.toString(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void removeSocket() {
+        try {
+            Files.deleteIfExists(socketFile);
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class CapturingExitHandler extends ExitHandler {
+
+        private int exitCode;
+        private boolean exited;
+
+        @Override
+        void exitOperation(int code) {
+            if (!exited) {
+                exitCode = code;
+                exited = true;
+            }
+        }
+
+        @Override
+        boolean terminates() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package uj.wmii.pwj.gvt;
+
+public class InvalidVersionException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int version;
+
+    InvalidVersionException(int version) {
+        super("Invalid version number: " + version);
+        this.version = version;
+    }
+
+    public int version() {
+        return version;
+    }
+}
@@ -0,0 +1,140 @@
+package uj.wmii.pwj.gvt;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Metrics {
+
+    private static final LongAdder[] PHASE_NANOS = adders(Phase.values().length);
+    private static final LongAdder[] PHASE_COUNTS = adders(Phase.values().length);
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder FILES_TOUCHED = new LongAdder();
+    private static final LongAdder FSYNCS = new LongAdder();
+
+    private Metrics() {
+    }
+
+    public static Snapshot snapshot() {
+        Map<Phase, Timing> phases = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new Timing(PHASE_COUNTS[phase.ordinal()].sum(), PHASE_NANOS[phase.ordinal()].sum()));
+        }
+        return new Snapshot(Collections.unmodifiableMap(phases), BYTES_READ.sum(), BYTES_WRITTEN.sum(),
+                FILES_TOUCHED.sum(), FSYNCS.sum());
+    }
+
+    static Timer time(Phase phase) {
+        return new Timer(phase);
+    }
+
+    static void bytesRead(long bytes) {
+        BYTES_READ.add(bytes);
+    }
+
+    static void bytesWritten(long bytes) {
+        BYTES_WRITTEN.add(bytes);
+    }
+
+    static void fileTouched() {
+        FILES_TOUCHED.increment();
+    }
+
+    static void fsync() {
+        FSYNCS.increment();
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public enum Phase {
+        VALIDATE("validate"),
+        SNAPSHOT("snapshot"),
+        OBJECT_SYNC("object sync"),
+        METADATA_WRITE("metadata write"),
+        INDEX_UPDATE("index update"),
+        DELTIFY("deltify"),
+        RESTORE("checkout restore"),
+        STATUS_SCAN("status scan");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    public record Timing(long count, long nanos) {
+    }
+
+    public record Snapshot(Map<Phase, Timing> phases, long bytesRead, long bytesWritten, long filesTouched,
+                           long fsyncs) {
+
+        public Snapshot since(Snapshot earlier) {
+            Map<Phase, Timing> difference = new EnumMap<>(Phase.class);
+            for (Map.Entry<Phase, Timing> entry : phases.entrySet()) {
+                Timing before = earlier.phases.get(entry.getKey());
+                difference.put(entry.getKey(), new Timing(entry.getValue().count() - before.count(),
+                        entry.getValue().nanos() - before.nanos()));
+            }
+            return new Snapshot(Collections.unmodifiableMap(difference), bytesRead - earlier.bytesRead,
+                    bytesWritten - earlier.bytesWritten, filesTouched - earlier.filesTouched, fsyncs - earlier.fsyncs);
+        }
+
+        String describe() {
+            StringBuilder description = new StringBuilder();
+            for (Map.Entry<Phase, Timing> entry : phases.entrySet()) {
+                Timing timing = entry.getValue();
+                if (timing.count() > 0) {
+                    description.append(entry.getKey().label()).append(": ")
+                            .append(TimeUnit.NANOSECONDS.toMillis(timing.nanos())).append(" ms");
+                    if (timing.count() > 1) {
+                        description.append(" (").append(timing.count()).append("x)");
+                    }
+                    description.append('\n');
+                }
+            }
+            return description.append("Bytes read: ").append(bytesRead)
+                    .append(", bytes written: ").append(bytesWritten)
+                    .append(", files touched: ").append(filesTouched)
+                    .append(", fsyncs: ").append(fsyncs)
+                    .toString();
+        }
+    }
+
+    // Create it inside the try of a held lock, so a failure here never leaves the lock held.
+    static final class Timer implements AutoCloseable {
+
+        private final Phase phase;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start;
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            PHASE_NANOS[phase.ordinal()].add(System.nanoTime() - start);
+            PHASE_COUNTS[phase.ordinal()].increment();
+            if (event.shouldCommit()) {
+                event.phase = phase.label();
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package uj.wmii.pwj.gvt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class MyersDiff {
+
+    private static final int MIN_COST_LIMIT = 256;
+
+    private final long[] a;
+    private final long[] b;
+    private final List<Edit> edits = new ArrayList<>();
+
+    private MyersDiff(long[] a, long[] b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    static List<Edit> diff(long[] a, long[] b) {
+        MyersDiff diff = new MyersDiff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.edits;
+    }
+
+    private void compare(int beginA, int endA, int beginB, int endB) {
+        while (beginA < endA && beginB < endB && a[beginA] == b[beginB]) {
+            beginA++;
+            beginB++;
+        }
+        while (beginA < endA && beginB < endB && a[endA - 1] == b[endB - 1]) {
+            endA--;
+            endB--;
+        }
+        if (beginA == endA || beginB == endB) {
+            if (beginA < endA || beginB < endB) {
+                addEdit(beginA, endA, beginB, endB);
+            }
+            return;
+        }
+        int[] split = middleSnake(beginA, endA, beginB, endB);
+        compare(beginA, split[0], beginB, split[1]);
+        compare(split[2], endA, split[3], endB);
+    }
+
+    private int[] middleSnake(int beginA, int endA, int beginB, int endB) {
+        int n = endA - beginA;
+        int m = endB - beginB;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        int costLimit = Math.max(MIN_COST_LIMIT, (int) Math.sqrt((double) n + m) * 4);
+
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+                        ? forward[offset + k + 1]
+                        : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[beginA + x] == b[beginB + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int reverseK = delta - k;
+                if (odd && reverseK >= -(d - 1) && reverseK <= d - 1
+                        && x + backward[offset + reverseK] >= n) {
+                    return new int[]{beginA + startX, beginB + startY, beginA + x, beginB + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1]))
+                        ? backward[offset + k + 1]
+                        : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[endA - 1 - x] == b[endB - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                int forwardK = delta - k;
+                if (!odd && forwardK >= -d && forwardK <= d
+                        && x + forward[offset + forwardK] >= n) {
+                    return new int[]{endA - x, endB - y, endA - startX, endB - startY};
+                }
+            }
+            if (d >= costLimit) {
+                return furthestForward(d, n, m, forward, offset, beginA, beginB);
+            }
+        }
+        throw new IllegalStateException("No middle snake found.");
+    }
+
+    private static int[] furthestForward(int d, int n, int m, int[] forward, int offset, int beginA, int beginB) {
+        int bestX = 0;
+        int bestY = 0;
+        for (int k = -d; k <= d; k += 2) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y < n + m && x + y > bestX + bestY) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        if (bestX + bestY == 0) {
+            bestX = n / 2;
+            bestY = m / 2;
+        }
+        return new int[]{beginA + bestX, beginB + bestY, beginA + bestX, beginB + bestY};
+    }
+
+    private void addEdit(int beginA, int endA, int beginB, int endB) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == beginA && last.endB == beginB) {
+                edits.set(edits.size() - 1, new Edit(last.beginA, endA, last.beginB, endB));
+                return;
+            }
+        }
+        edits.add(new Edit(beginA, endA, beginB, endB));
+    }
+
+    record Edit(int beginA, int endA, int beginB, int endB) {
+    }
+}
@@ -0,0 +1,19 @@
+package uj.wmii.pwj.gvt;
+
+import java.nio.file.Path;
+
+public class NotInitializedException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path root;
+
+    NotInitializedException(Path root) {
+        super("Current directory is not initialized. Please use init command to initialize.");
+        this.root = root;
+    }
+
+    public Path root() {
+        return root;
+    }
+}
@@ -0,0 +1,66 @@
+package uj.wmii.pwj.gvt;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class ObjectCache {
+
+    static final String CAPACITY_PROPERTY = "gvt.cacheBytes";
+    static final ObjectCache SHARED = new ObjectCache(Long.getLong(CAPACITY_PROPERTY, 64L * 1024 * 1024));
+
+    private static final int MAX_ENTRY_FRACTION = 16;
+
+    private final long capacity;
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> tree(Path store, String hash) {
+        return (Map<String, String>) get(new Key(store, hash, true));
+    }
+
+    void putTree(Path store, String hash, Map<String, String> entries, int storedSize) {
+        put(new Key(store, hash, true), entries, storedSize);
+    }
+
+    byte[] blob(Path store, String hash) {
+        return (byte[]) get(new Key(store, hash, false));
+    }
+
+    void putBlob(Path store, String hash, byte[] content) {
+        put(new Key(store, hash, false), content, content.length);
+    }
+
+    private synchronized Object get(Key key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.value();
+    }
+
+    private synchronized void put(Key key, Object value, long weight) {
+        if (weight > capacity / MAX_ENTRY_FRACTION) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, weight));
+        if (previous != null) {
+            size -= previous.weight();
+        }
+        size += weight;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > capacity) {
+            size -= eldest.next().weight();
+            eldest.remove();
+        }
+    }
+
+    private record Key(Path store, String hash, boolean tree) {
+    }
+
+    private record Entry(Object value, long weight) {
+    }
+}
@@ -0,0 +1,606 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+class ObjectStore {
+
+    static final int HASH_LENGTH = 40;
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String CHUNKS_SUFFIX = ".chunks";
+    private static final int HASH_BYTES = HASH_LENGTH / 2;
+    private static final String TMP_PREFIX = "tmp-";
+    private static final int MAX_DELTA_SOURCE_SIZE = 16 * 1024 * 1024;
+    private static final String DELTA_BASES_FILE = "delta-bases";
+
+    private final Path objectsDir;
+    private final Codec codec;
+    private final ObjectCache cache;
+    private final Path cacheScope;
+    private final Set<Path> unsynced = ConcurrentHashMap.newKeySet();
+    private final Set<String> deltaBases = new HashSet<>();
+    private long deltaBasesRead;
+
+    ObjectStore(Path objectsDir, Codec codec) {
+        this(objectsDir, codec, ObjectCache.SHARED);
+    }
+
+    ObjectStore(Path objectsDir, Codec codec, ObjectCache cache) {
+        this.objectsDir = objectsDir;
+        this.codec = codec;
+        this.cache = cache;
+        this.cacheScope = objectsDir.toAbsolutePath().normalize();
+    }
+
+    String store(Path source) throws IOException {
+        Path tmp = Files.createTempFile(objectsDir, TMP_PREFIX, ".obj");
+        try {
+            MessageDigest digest = newDigest();
+            if (codec == Codec.NONE) {
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    FileTransfer.copy(source, out, digest);
+                }
+            } else {
+                try (OutputStream out = codec.compress(Files.newOutputStream(tmp))) {
+                    FileTransfer.copy(source, out, digest);
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            publish(tmp, hash);
+            return hash;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    String storeChunked(Path source) throws IOException {
+        if (Files.size(source) <= Chunker.MAX_SIZE) {
+            return store(source);
+        }
+        MessageDigest digest = newDigest();
+        ByteArrayOutputStream chunkList = new ByteArrayOutputStream();
+        DataOutputStream list = new DataOutputStream(chunkList);
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                list.write(HexFormat.of().parseHex(store(chunk)));
+                list.writeInt(chunk.length);
+                Metrics.bytesRead(chunk.length);
+            }
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path existing = existingPath(hash);
+        if (existing != null) {
+            freshen(existing);
+            return hash;
+        }
+        Path tmp = Files.createTempFile(objectsDir, TMP_PREFIX, ".obj");
+        try {
+            Files.write(tmp, chunkList.toByteArray());
+            Path path = chunksPathOf(hash);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            unsynced.add(path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return hash;
+    }
+
+    String store(byte[] content) throws IOException {
+        String hash = hash(content);
+        Path existing = existingPath(hash);
+        if (existing != null) {
+            freshen(existing);
+        } else {
+            Path tmp = Files.createTempFile(objectsDir, TMP_PREFIX, ".obj");
+            try {
+                try (OutputStream out = codec.compress(Files.newOutputStream(tmp))) {
+                    out.write(content);
+                }
+                Metrics.bytesWritten(content.length);
+                publish(tmp, hash);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return hash;
+    }
+
+    boolean touch(String hash) throws IOException {
+        Path existing = existingPath(hash);
+        if (existing == null) {
+            return false;
+        }
+        freshen(existing);
+        return true;
+    }
+
+    boolean contains(String hash) {
+        return existingPath(hash) != null;
+    }
+
+    InputStream open(String hash) throws IOException {
+        StoredObject stored = locate(hash);
+        if (stored != null) {
+            try {
+                return stored.codec.decompress(Files.newInputStream(stored.path));
+            } catch (NoSuchFileException e) {
+                // deltified concurrently
+            }
+        }
+        if (Files.exists(chunksPathOf(hash))) {
+            return new ChunkInputStream(chunksOf(hash));
+        }
+        return new ByteArrayInputStream(readDeltified(hash));
+    }
+
+    byte[] read(String hash) throws IOException {
+        StoredObject stored = locate(hash);
+        if (stored != null) {
+            try (InputStream in = stored.codec.decompress(Files.newInputStream(stored.path))) {
+                return in.readAllBytes();
+            } catch (NoSuchFileException e) {
+                // deltified concurrently
+            }
+        }
+        if (Files.exists(chunksPathOf(hash))) {
+            try (InputStream in = new ChunkInputStream(chunksOf(hash))) {
+                return in.readAllBytes();
+            }
+        }
+        return readDeltified(hash);
+    }
+
+    Map<String, String> readTree(String hash) throws IOException {
+        Map<String, String> entries = cache.tree(cacheScope, hash);
+        if (entries == null) {
+            byte[] content = read(hash);
+            entries = Collections.unmodifiableMap(Tree.parse(new String(content, StandardCharsets.UTF_8)));
+            cache.putTree(cacheScope, hash, entries, content.length);
+        }
+        return entries;
+    }
+
+    void restore(String hash, Path target) throws IOException {
+        StoredObject stored = locate(hash);
+        if (stored != null) {
+            try {
+                if (stored.codec == Codec.NONE) {
+                    FileTransfer.copy(stored.path, target);
+                } else {
+                    try (InputStream in = stored.codec.decompress(Files.newInputStream(stored.path))) {
+                        FileTransfer.copy(in, target);
+                    }
+                }
+                return;
+            } catch (NoSuchFileException e) {
+                if (Files.exists(stored.path)) {
+                    throw e;
+                }
+            }
+        }
+        if (Files.exists(chunksPathOf(hash))) {
+            try (InputStream in = new ChunkInputStream(chunksOf(hash))) {
+                FileTransfer.copy(in, target);
+            }
+            return;
+        }
+        byte[] cached = cache.blob(cacheScope, hash);
+        if (cached != null) {
+            FileTransfer.copy(new ByteArrayInputStream(cached), target);
+            return;
+        }
+        // The base is held in memory; the target is written out as the delta is applied.
+        DeltaObject delta = readDelta(hash);
+        byte[] base = read(delta.baseHash);
+        try (OutputStream out = FileTransfer.newOutputStream(target)) {
+            Metrics.bytesWritten(Delta.apply(base, delta.instructions, out));
+        }
+    }
+
+    List<Path> takeUnsynced() {
+        List<Path> paths = new ArrayList<>(unsynced);
+        unsynced.removeAll(paths);
+        return paths;
+    }
+
+    int chainDepth(String hash) throws IOException {
+        int depth = 0;
+        for (String base = baseOf(hash); base != null; base = baseOf(base)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private Set<String> scanDeltaBases() throws IOException {
+        Set<String> bases = new HashSet<>();
+        list((file, hash, form, attributes) -> {
+            if (form == Form.DELTA) {
+                bases.add(baseOf(hash));
+            }
+        });
+        return bases;
+    }
+
+    String baseOf(String hash) throws IOException {
+        if (locate(hash) != null || Files.exists(chunksPathOf(hash))) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(deltaPathOf(hash))) {
+            return new String(in.readNBytes(HASH_LENGTH), StandardCharsets.US_ASCII);
+        }
+    }
+
+    List<String> chunksOf(String hash) throws IOException {
+        byte[] list = Files.readAllBytes(chunksPathOf(hash));
+        List<String> chunks = new ArrayList<>(list.length / (HASH_BYTES + Integer.BYTES));
+        for (int offset = 0; offset < list.length; offset += HASH_BYTES + Integer.BYTES) {
+            chunks.add(HexFormat.of().formatHex(list, offset, offset + HASH_BYTES));
+        }
+        return chunks;
+    }
+
+    void list(FileVisitor visitor) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(objectsDir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String hash = isObjectName(name) ? name.substring(0, HASH_LENGTH) : null;
+                if (hash == null && !name.startsWith(TMP_PREFIX)) {
+                    continue;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                visitor.visit(file, hash, hash == null ? null : formOf(name), attributes);
+            }
+        }
+    }
+
+    long storedSize(String hash) throws IOException {
+        StoredObject stored = locate(hash);
+        return stored != null ? Files.size(stored.path) : Files.size(deltaPathOf(hash));
+    }
+
+    long deltify(String hash, String baseHash, int maxChain) throws IOException {
+        PendingDelta delta = prepareDelta(hash, baseHash, maxChain);
+        return delta == null ? 0 : publishDelta(delta);
+    }
+
+    // Objects over 16 MB uncompressed, or stored against one that is, stay full.
+    PendingDelta prepareDelta(String hash, String baseHash, int maxChain) throws IOException {
+        StoredObject stored = locate(hash);
+        if (hash.equals(baseHash) || stored == null || isDeltaBase(hash, false)
+                || !contains(baseHash) || Files.exists(chunksPathOf(baseHash))) {
+            return null;
+        }
+        int depth = chainDepth(baseHash) + 1;
+        if (depth > maxChain) {
+            return null;
+        }
+        byte[] base;
+        byte[] target;
+        long storedSize;
+        try {
+            storedSize = Files.size(stored.path);
+            base = readAtMost(baseHash, MAX_DELTA_SOURCE_SIZE);
+            target = base == null ? null : readAtMost(hash, MAX_DELTA_SOURCE_SIZE);
+        } catch (NoSuchFileException e) {
+            // removed or deltified concurrently
+            return null;
+        }
+        if (target == null) {
+            return null;
+        }
+
+        byte[] instructions = Delta.compute(base, target);
+        Path tmp = Files.createTempFile(objectsDir, TMP_PREFIX, ".obj");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.write(baseHash.getBytes(StandardCharsets.US_ASCII));
+                out.writeInt(depth);
+                out.write(instructions);
+            }
+            long deltaSize = Files.size(tmp);
+            if (deltaSize >= storedSize) {
+                Files.delete(tmp);
+                return null;
+            }
+            // The full object may only go away once its replacement is durable.
+            Fsync.file(tmp);
+            return new PendingDelta(hash, baseHash, depth, stored.path, tmp, storedSize - deltaSize);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    long publishDelta(PendingDelta delta) throws IOException {
+        try {
+            // A base stays full: turning it into a delta would lengthen the chains of every delta
+            // against it beyond the depth checked when they were written.
+            if (!Files.exists(delta.full) || isDeltaBase(delta.hash, true) || !contains(delta.baseHash)
+                    || chainDepth(delta.baseHash) + 1 != delta.depth) {
+                return 0;
+            }
+            recordDeltaBase(delta.baseHash);
+            Files.move(delta.tmp, deltaPathOf(delta.hash), StandardCopyOption.ATOMIC_MOVE);
+            Fsync.directory(objectsDir);
+            Files.deleteIfExists(delta.full);
+            return delta.bytesSaved;
+        } finally {
+            Files.deleteIfExists(delta.tmp);
+        }
+    }
+
+    void discard(PendingDelta delta) throws IOException {
+        Files.deleteIfExists(delta.tmp);
+    }
+
+    static String hash(byte[] content) {
+        return HexFormat.of().formatHex(newDigest().digest(content));
+    }
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        FileTransfer.digest(file, digest);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Bases are recorded before their delta is published and never removed.
+    private synchronized boolean isDeltaBase(String hash, boolean create) throws IOException {
+        Path file = objectsDir.resolve(DELTA_BASES_FILE);
+        if (!Files.exists(file)) {
+            if (!create) {
+                return false;
+            }
+            Path tmp = Files.createTempFile(objectsDir, TMP_PREFIX, ".bases");
+            try {
+                StringBuilder records = new StringBuilder();
+                for (String base : scanDeltaBases()) {
+                    records.append(base).append('\n');
+                }
+                Files.writeString(tmp, records, StandardCharsets.US_ASCII);
+                Fsync.file(tmp);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+                Fsync.directory(objectsDir);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > deltaBasesRead) {
+                ByteBuffer added = ByteBuffer.allocate(Math.toIntExact(size - deltaBasesRead));
+                while (added.hasRemaining()) {
+                    if (channel.read(added, deltaBasesRead + added.position()) < 0) {
+                        break;
+                    }
+                }
+                String records = new String(added.array(), 0, added.position(), StandardCharsets.US_ASCII);
+                // a record still being appended by another process is read once it is complete
+                int end = records.lastIndexOf('\n') + 1;
+                for (String record : records.substring(0, end).split("\n")) {
+                    if (record.length() == HASH_LENGTH) {
+                        deltaBases.add(record);
+                    }
+                }
+                deltaBasesRead += end;
+            }
+        }
+        return deltaBases.contains(hash);
+    }
+
+    // The leading line break ends a record torn by a crash.
+    private synchronized void recordDeltaBase(String baseHash) throws IOException {
+        if (deltaBases.contains(baseHash)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(objectsDir.resolve(DELTA_BASES_FILE),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer record = ByteBuffer.wrap(("\n" + baseHash + "\n").getBytes(StandardCharsets.US_ASCII));
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(true);
+        }
+        deltaBases.add(baseHash);
+    }
+
+    private byte[] readAtMost(String hash, int limit) throws IOException {
+        try (InputStream in = open(hash)) {
+            byte[] content = in.readNBytes(limit + 1);
+            return content.length > limit ? null : content;
+        }
+    }
+
+    private byte[] readDeltified(String hash) throws IOException {
+        byte[] content = cache.blob(cacheScope, hash);
+        if (content == null) {
+            DeltaObject delta = readDelta(hash);
+            content = Delta.apply(read(delta.baseHash), delta.instructions);
+            cache.putBlob(cacheScope, hash, content);
+        }
+        return content;
+    }
+
+    private DeltaObject readDelta(String hash) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(deltaPathOf(hash)))) {
+            String baseHash = new String(in.readNBytes(HASH_LENGTH), StandardCharsets.US_ASCII);
+            int depth = in.readInt();
+            return new DeltaObject(baseHash, depth, in.readAllBytes());
+        }
+    }
+
+    private void publish(Path tmp, String hash) throws IOException {
+        Path existing = existingPath(hash);
+        if (existing != null) {
+            freshen(existing);
+        } else {
+            Path path = pathOf(hash, codec);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            unsynced.add(path);
+        }
+    }
+
+    private Path existingPath(String hash) {
+        StoredObject stored = locate(hash);
+        if (stored != null) {
+            return stored.path;
+        }
+        Path delta = deltaPathOf(hash);
+        if (Files.exists(delta)) {
+            return delta;
+        }
+        Path chunks = chunksPathOf(hash);
+        return Files.exists(chunks) ? chunks : null;
+    }
+
+    private static void freshen(Path existing) throws IOException {
+        try {
+            Files.setLastModifiedTime(existing, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // replaced by a delta concurrently, which is itself new
+        }
+    }
+
+    private static boolean isObjectName(String name) {
+        if (name.length() < HASH_LENGTH || (name.length() > HASH_LENGTH && name.charAt(HASH_LENGTH) != '.')) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private StoredObject locate(String hash) {
+        for (Codec candidate : Codec.ALL) {
+            Path path = pathOf(hash, candidate);
+            if (Files.exists(path)) {
+                return new StoredObject(path, candidate);
+            }
+        }
+        return null;
+    }
+
+    private Path pathOf(String hash, Codec objectCodec) {
+        return objectCodec == Codec.NONE
+                ? objectsDir.resolve(hash)
+                : objectsDir.resolve(hash + "." + objectCodec.name());
+    }
+
+    private Path deltaPathOf(String hash) {
+        return objectsDir.resolve(hash + DELTA_SUFFIX);
+    }
+
+    private Path chunksPathOf(String hash) {
+        return objectsDir.resolve(hash + CHUNKS_SUFFIX);
+    }
+
+    private static Form formOf(String name) {
+        if (name.endsWith(DELTA_SUFFIX)) {
+            return Form.DELTA;
+        }
+        return name.endsWith(CHUNKS_SUFFIX) ? Form.CHUNKS : Form.FULL;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available.", e);
+        }
+    }
+
+    enum Form {
+        FULL, DELTA, CHUNKS
+    }
+
+    @FunctionalInterface
+    interface FileVisitor {
+        void visit(Path file, String hash, Form form, BasicFileAttributes attributes) throws IOException;
+    }
+
+    private record StoredObject(Path path, Codec codec) {
+    }
+
+    private record DeltaObject(String baseHash, int depth, byte[] instructions) {
+    }
+
+    record PendingDelta(String hash, String baseHash, int depth, Path full, Path tmp, long bytesSaved) {
+    }
+
+    private final class ChunkInputStream extends InputStream {
+
+        private final Iterator<String> chunks;
+        private InputStream current = InputStream.nullInputStream();
+
+        ChunkInputStream(List<String> chunks) {
+            this.chunks = chunks.iterator();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                int read = current.read(buffer, offset, length);
+                if (read >= 0) {
+                    return read;
+                }
+                if (!chunks.hasNext()) {
+                    return -1;
+                }
+                current.close();
+                current = open(chunks.next());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            current.close();
+        }
+    }
+}
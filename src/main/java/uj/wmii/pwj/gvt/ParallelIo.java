@@ -0,0 +1,91 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ParallelIo implements AutoCloseable {
+
+    private final int jobs;
+    private ExecutorService executor;
+
+    ParallelIo(int jobs) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("Number of jobs must be positive: " + jobs);
+        }
+        this.jobs = jobs;
+    }
+
+    static int defaultJobs() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    int jobs() {
+        return jobs;
+    }
+
+    <T> List<T> run(List<IoTask<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        List<Throwable> failures = new ArrayList<>();
+        if (jobs == 1 || tasks.size() < 2) {
+            for (IoTask<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (IOException | RuntimeException e) {
+                    failures.add(e);
+                }
+            }
+        } else {
+            List<Future<T>> futures = new ArrayList<>(tasks.size());
+            for (IoTask<T> task : tasks) {
+                futures.add(executor().submit(task::call));
+            }
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.add(e);
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            IOException exception = new IOException(failures.size() + " of " + tasks.size()
+                    + " file operations failed.");
+            failures.forEach(exception::addSuppressed);
+            throw exception;
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private ExecutorService executor() {
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(jobs, runnable -> {
+                Thread thread = new Thread(runnable, "gvt-io-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @FunctionalInterface
+    interface IoTask<T> {
+        T call() throws IOException;
+    }
+}
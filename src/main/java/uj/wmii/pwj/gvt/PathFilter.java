@@ -0,0 +1,68 @@
+package uj.wmii.pwj.gvt;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+final class PathFilter {
+
+    static final PathFilter ALL = new PathFilter(List.of());
+
+    private final List<String> patterns;
+    private final List<Predicate<String>> matchers = new ArrayList<>();
+
+    private PathFilter(List<String> patterns) {
+        this.patterns = List.copyOf(patterns);
+        for (String pattern : this.patterns) {
+            if (isGlob(pattern)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                matchers.add(name -> matcher.matches(Path.of(name)));
+            } else {
+                String directory = pattern + "/";
+                matchers.add(name -> name.equals(pattern) || name.startsWith(directory));
+            }
+        }
+    }
+
+    static PathFilter of(List<String> patterns) {
+        return patterns.isEmpty() ? ALL : new PathFilter(patterns);
+    }
+
+    static boolean isGlob(String pattern) {
+        return pattern.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    List<String> patterns() {
+        return patterns;
+    }
+
+    boolean matchesAll() {
+        return patterns.isEmpty();
+    }
+
+    boolean matches(String name) {
+        if (matchesAll()) {
+            return true;
+        }
+        for (Predicate<String> matcher : matchers) {
+            if (matcher.test(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String firstUnmatched(Collection<String> names) {
+        for (int i = 0; i < patterns.size(); i++) {
+            Predicate<String> matcher = matchers.get(i);
+            if (names.stream().noneMatch(matcher)) {
+                return patterns.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,17 @@
+package uj.wmii.pwj.gvt;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("uj.wmii.pwj.gvt.Phase")
+@Label("Gvt Phase")
+@Category("Gvt")
+@Description("A timed step of a version control operation")
+class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+}
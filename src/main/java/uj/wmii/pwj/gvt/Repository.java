@@ -0,0 +1,25 @@
+package uj.wmii.pwj.gvt;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class Repository {
+
+    private static final Map<Path, Gvt.VersionControl> OPEN = new ConcurrentHashMap<>();
+
+    private Repository() {
+    }
+
+    public static Gvt.VersionControl open(Path root) {
+        return OPEN.computeIfAbsent(root.toAbsolutePath().normalize(), directory -> {
+            Gvt.VersionControl versionControl = new Gvt.VersionControl(directory);
+            versionControl.cacheVersions();
+            return versionControl;
+        });
+    }
+
+    public static boolean release(Path root) {
+        return OPEN.remove(root.toAbsolutePath().normalize()) != null;
+    }
+}
@@ -0,0 +1,89 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+
+class RepositoryConfig {
+
+    static final String STORAGE_MODE = "storage.mode";
+    static final String MAX_DELTA_CHAIN = "storage.maxDeltaChain";
+    static final String CODEC = "storage.codec";
+    static final String IO_JOBS = "io.jobs";
+    static final String GC_GRACE_PERIOD = "gc.gracePeriodSeconds";
+
+    private static final String MODE_PACKED = "packed";
+    private static final String MODE_CHUNKED = "chunked";
+    private static final String DEFAULT_MODE = "loose";
+    private static final int DEFAULT_MAX_DELTA_CHAIN = 10;
+    private static final Codec DEFAULT_CODEC = Codec.DEFLATE;
+    private static final int DEFAULT_GC_GRACE_PERIOD_SECONDS = 3600;
+
+    private final Properties properties;
+
+    private RepositoryConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    static RepositoryConfig load(Path configFile) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(configFile)) {
+            try (Reader reader = Files.newBufferedReader(configFile)) {
+                properties.load(reader);
+            }
+        }
+        return new RepositoryConfig(properties);
+    }
+
+    static void writeDefaults(Path configFile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(STORAGE_MODE, DEFAULT_MODE);
+        properties.setProperty(MAX_DELTA_CHAIN, String.valueOf(DEFAULT_MAX_DELTA_CHAIN));
+        properties.setProperty(CODEC, DEFAULT_CODEC.name());
+        try (Writer writer = Files.newBufferedWriter(configFile)) {
+            properties.store(writer, "gvt repository configuration");
+        }
+    }
+
+    boolean isPacked() {
+        return MODE_PACKED.equals(properties.getProperty(STORAGE_MODE, DEFAULT_MODE).trim());
+    }
+
+    boolean isChunked() {
+        return MODE_CHUNKED.equals(properties.getProperty(STORAGE_MODE, DEFAULT_MODE).trim());
+    }
+
+    int maxDeltaChain() {
+        return intProperty(MAX_DELTA_CHAIN, DEFAULT_MAX_DELTA_CHAIN);
+    }
+
+    // Only objects written with NONE are restored by a zero-copy transfer.
+    Codec codec() {
+        String name = properties.getProperty(CODEC);
+        return name == null ? DEFAULT_CODEC : Codec.forName(name.trim());
+    }
+
+    int ioJobs() {
+        return Math.max(1, intProperty(IO_JOBS, ParallelIo.defaultJobs()));
+    }
+
+    Duration gcGracePeriod() {
+        return Duration.ofSeconds(Math.max(0, intProperty(GC_GRACE_PERIOD, DEFAULT_GC_GRACE_PERIOD_SECONDS)));
+    }
+
+    private int intProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
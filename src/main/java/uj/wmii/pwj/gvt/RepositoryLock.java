@@ -0,0 +1,74 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// File locks belong to the whole JVM, so threads are serialized by an in-memory lock first.
+class RepositoryLock implements AutoCloseable {
+
+    private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private RepositoryLock(ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    static RepositoryLock acquire(Path lockFile) throws IOException {
+        ReentrantLock localLock = localLock(lockFile);
+        localLock.lock();
+        return lockFile(lockFile, localLock, true);
+    }
+
+    static RepositoryLock tryAcquire(Path lockFile) throws IOException {
+        ReentrantLock localLock = localLock(lockFile);
+        if (!localLock.tryLock()) {
+            return null;
+        }
+        return lockFile(lockFile, localLock, false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    private static ReentrantLock localLock(Path lockFile) {
+        return LOCAL_LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), path -> new ReentrantLock());
+    }
+
+    private static RepositoryLock lockFile(Path lockFile, ReentrantLock localLock, boolean wait) throws IOException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock = wait ? channel.lock() : channel.tryLock();
+            if (fileLock == null) {
+                channel.close();
+                localLock.unlock();
+                return null;
+            }
+            return new RepositoryLock(localLock, channel, fileLock);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            localLock.unlock();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Entries for files modified at or after the cache file was saved are not trusted: a later write
+// within the same timestamp granularity would go unnoticed.
+class StatCache {
+
+    private static final int FORMAT = 0x47565333;
+
+    private final Path cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private long savedAt;
+    private volatile boolean modified;
+
+    private StatCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    static StatCache load(Path cacheFile) throws IOException {
+        StatCache cache = new StatCache(cacheFile);
+        if (Files.exists(cacheFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+                if (in.readInt() != FORMAT) {
+                    // Written by an older version; it is only a cache, so start over.
+                    return cache;
+                }
+                cache.savedAt = Files.getLastModifiedTime(cacheFile).toMillis();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    cache.entries.put(name, new Entry(in.readLong(), in.readLong(), in.readInt(), in.readUTF()));
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                return new StatCache(cacheFile);
+            }
+        }
+        return cache;
+    }
+
+    String hashOf(Path file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String hash = trustedHash(file, attributes);
+        if (hash == null) {
+            hash = ObjectStore.hash(file);
+            entries.put(file.toString(), Entry.of(attributes, hash));
+            modified = true;
+        }
+        return hash;
+    }
+
+    String cachedHash(Path file, BasicFileAttributes attributes) {
+        return trustedHash(file, attributes);
+    }
+
+    void record(Path file, BasicFileAttributes attributes, String hash) {
+        entries.put(file.toString(), Entry.of(attributes, hash));
+        modified = true;
+    }
+
+    private String trustedHash(Path file, BasicFileAttributes attributes) {
+        Entry entry = entries.get(file.toString());
+        return entry != null && entry.matches(attributes) && entry.mtime < savedAt ? entry.hash : null;
+    }
+
+    void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+        // Concurrent commands may save at the same time; each writes its own temporary file.
+        Path tmp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName() + "-", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FORMAT);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().mtime);
+                out.writeInt(entry.getValue().fileKey);
+                out.writeUTF(entry.getValue().hash);
+            }
+        }
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+    }
+
+    private record Entry(long size, long mtime, int fileKey, String hash) {
+
+        static Entry of(BasicFileAttributes attributes, String hash) {
+            return new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes), hash);
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && mtime == attributes.lastModifiedTime().toMillis()
+                    && fileKey == fileKey(attributes);
+        }
+
+        private static int fileKey(BasicFileAttributes attributes) {
+            Object fileKey = attributes.fileKey();
+            return fileKey == null ? 0 : fileKey.hashCode();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class TrackingIndex {
+
+    private static final byte OP_ADD = '+';
+    private static final byte OP_REMOVE = '-';
+
+    private final Path indexFile;
+    private final Set<String> tracked = new HashSet<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int records;
+    private FileStamp stamp;
+
+    private TrackingIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    static void create(Path indexFile) throws IOException {
+        Files.createFile(indexFile);
+    }
+
+    static TrackingIndex load(Path indexFile) throws IOException {
+        TrackingIndex index = new TrackingIndex(indexFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            while (true) {
+                byte op;
+                String name;
+                try {
+                    op = in.readByte();
+                    name = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (op == OP_ADD) {
+                    index.tracked.add(name);
+                } else {
+                    index.tracked.remove(name);
+                }
+                index.records++;
+            }
+        }
+        index.stamp = FileStamp.of(indexFile);
+        return index;
+    }
+
+    static void migrate(Path textIndex, Path indexFile) throws IOException {
+        List<String> names = Files.readAllLines(textIndex);
+        rewrite(indexFile, names.stream().filter(name -> !name.isEmpty()).toList());
+        Files.delete(textIndex);
+    }
+
+    static void rewrite(Path indexFile, Collection<String> names) throws IOException {
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (String name : names) {
+                out.writeByte(OP_ADD);
+                out.writeUTF(name);
+            }
+        }
+        Fsync.file(tmp);
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized boolean isCurrent() throws IOException {
+        return stamp != null && stamp.equals(FileStamp.of(indexFile));
+    }
+
+    synchronized boolean contains(String fileName) {
+        return tracked.contains(fileName);
+    }
+
+    synchronized Set<String> trackedFiles() {
+        return Set.copyOf(tracked);
+    }
+
+    synchronized void add(String fileName) throws IOException {
+        if (tracked.add(fileName)) {
+            append(OP_ADD, fileName);
+        }
+    }
+
+    synchronized void remove(String fileName) throws IOException {
+        if (tracked.remove(fileName)) {
+            append(OP_REMOVE, fileName);
+        }
+    }
+
+    synchronized void save() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        stamp = null;
+        if (records > 2 * tracked.size() + 16) {
+            compact();
+        } else {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                pending.writeTo(Channels.newOutputStream(channel));
+                channel.force(true);
+            }
+        }
+        pending.reset();
+        stamp = FileStamp.of(indexFile);
+    }
+
+    private void append(byte op, String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeByte(op);
+        out.writeUTF(fileName);
+        records++;
+    }
+
+    private void compact() throws IOException {
+        rewrite(indexFile, tracked);
+        records = tracked.size();
+    }
+}
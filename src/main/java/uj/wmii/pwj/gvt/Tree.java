@@ -0,0 +1,180 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+class Tree {
+
+    private static final char SEPARATOR = '/';
+
+    private final Loader loader;
+    private final Map<String, String> entries;
+    private final Map<String, Tree> changedSubtrees = new HashMap<>();
+    private String hash;
+
+    private Tree(Loader loader, Map<String, String> entries, String hash) {
+        this.loader = loader;
+        this.entries = entries;
+        this.hash = hash;
+    }
+
+    static Tree empty(Loader loader) {
+        return new Tree(loader, new TreeMap<>(), null);
+    }
+
+    static Tree load(Loader loader, String hash) throws IOException {
+        return new Tree(loader, new TreeMap<>(loader.entries(hash)), hash);
+    }
+
+    static Map<String, String> parse(String content) {
+        Map<String, String> entries = new TreeMap<>();
+        content.lines()
+                .filter(line -> line.length() > ObjectStore.HASH_LENGTH)
+                .forEach(line -> entries.put(line.substring(ObjectStore.HASH_LENGTH + 1),
+                        line.substring(0, ObjectStore.HASH_LENGTH)));
+        return entries;
+    }
+
+    static Map<String, String> flatten(Loader loader, String hash) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        visit(loader, hash, "", files::put);
+        return files;
+    }
+
+    static List<Map.Entry<String, String>> files(Loader loader, String hash) throws IOException {
+        List<Map.Entry<String, String>> files = new ArrayList<>();
+        visit(loader, hash, "", (path, fileHash) -> files.add(Map.entry(path, fileHash)));
+        return files;
+    }
+
+    static void compare(Loader loader, String oldHash, String newHash, ChangeVisitor changes) throws IOException {
+        compare(loader, oldHash, newHash, "", changes);
+    }
+
+    String get(String path) throws IOException {
+        int separator = path.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return entries.get(path);
+        }
+        String directory = path.substring(0, separator + 1);
+        Tree subtree = changedSubtrees.get(directory);
+        if (subtree != null) {
+            return subtree.get(path.substring(separator + 1));
+        }
+        String subtreeHash = entries.get(directory);
+        return subtreeHash == null ? null : load(loader, subtreeHash).get(path.substring(separator + 1));
+    }
+
+    void put(String path, String fileHash) throws IOException {
+        int separator = path.indexOf(SEPARATOR);
+        if (separator < 0) {
+            entries.put(path, fileHash);
+        } else {
+            subtree(path.substring(0, separator + 1), true).put(path.substring(separator + 1), fileHash);
+        }
+        hash = null;
+    }
+
+    void remove(String path) throws IOException {
+        int separator = path.indexOf(SEPARATOR);
+        if (separator < 0) {
+            entries.remove(path);
+        } else {
+            String directory = path.substring(0, separator + 1);
+            Tree subtree = subtree(directory, false);
+            if (subtree == null) {
+                return;
+            }
+            subtree.remove(path.substring(separator + 1));
+            if (subtree.entries.isEmpty()) {
+                entries.remove(directory);
+                changedSubtrees.remove(directory);
+            }
+        }
+        hash = null;
+    }
+
+    String write(ObjectStore store) throws IOException {
+        if (hash != null) {
+            return hash;
+        }
+        for (Map.Entry<String, Tree> subtree : changedSubtrees.entrySet()) {
+            entries.put(subtree.getKey(), subtree.getValue().write(store));
+        }
+        changedSubtrees.clear();
+
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            content.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        hash = store.store(content.toString().getBytes(StandardCharsets.UTF_8));
+        return hash;
+    }
+
+    private Tree subtree(String directory, boolean create) throws IOException {
+        Tree subtree = changedSubtrees.get(directory);
+        if (subtree == null) {
+            String subtreeHash = entries.get(directory);
+            if (subtreeHash != null) {
+                subtree = load(loader, subtreeHash);
+            } else if (create) {
+                subtree = empty(loader);
+            } else {
+                return null;
+            }
+            changedSubtrees.put(directory, subtree);
+        }
+        return subtree;
+    }
+
+    private static void visit(Loader loader, String hash, String prefix, BiConsumer<String, String> files)
+            throws IOException {
+        for (Map.Entry<String, String> entry : loader.entries(hash).entrySet()) {
+            String name = entry.getKey();
+            if (name.charAt(name.length() - 1) == SEPARATOR) {
+                visit(loader, entry.getValue(), prefix + name, files);
+            } else {
+                files.accept(prefix + name, entry.getValue());
+            }
+        }
+    }
+
+    private static void compare(Loader loader, String oldHash, String newHash, String prefix,
+                                ChangeVisitor changes) throws IOException {
+        Map<String, String> oldEntries = oldHash == null ? Map.of() : loader.entries(oldHash);
+        Map<String, String> newEntries = newHash == null ? Map.of() : loader.entries(newHash);
+        Set<String> names = new TreeSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+        for (String name : names) {
+            String oldEntry = oldEntries.get(name);
+            String newEntry = newEntries.get(name);
+            if (Objects.equals(oldEntry, newEntry)) {
+                continue;
+            }
+            if (name.charAt(name.length() - 1) == SEPARATOR) {
+                compare(loader, oldEntry, newEntry, prefix + name, changes);
+            } else {
+                changes.changed(prefix + name, oldEntry, newEntry);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Loader {
+        Map<String, String> entries(String hash) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface ChangeVisitor {
+        void changed(String path, String oldHash, String newHash) throws IOException;
+    }
+}
@@ -0,0 +1,189 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+final class UnifiedDiff {
+
+    private static final int CONTEXT = 3;
+    private static final int BINARY_PROBE_SIZE = 8000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final byte[] NO_NEWLINE_MARKER = "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectStore store;
+    private final OutputStream out;
+
+    UnifiedDiff(ObjectStore store, OutputStream out) {
+        this.store = store;
+        this.out = out;
+    }
+
+    void file(String path, String oldHash, String newHash) throws IOException {
+        Lines oldLines = scan(oldHash);
+        Lines newLines = scan(newHash);
+        String oldName = oldHash == null ? "/dev/null" : "a/" + path;
+        String newName = newHash == null ? "/dev/null" : "b/" + path;
+        if (oldLines.binary || newLines.binary) {
+            write("Binary files " + oldName + " and " + newName + " differ\n");
+            return;
+        }
+        List<MyersDiff.Edit> edits = MyersDiff.diff(oldLines.hashes, newLines.hashes);
+        if (edits.isEmpty()) {
+            return;
+        }
+        write("--- " + oldName + "\n+++ " + newName + "\n");
+        try (LineReader oldReader = new LineReader(open(oldHash));
+             LineReader newReader = new LineReader(open(newHash))) {
+            int first = 0;
+            while (first < edits.size()) {
+                int last = first;
+                while (last + 1 < edits.size() && edits.get(last + 1).beginA() - edits.get(last).endA() <= 2 * CONTEXT) {
+                    last++;
+                }
+                hunk(edits.subList(first, last + 1), oldLines.hashes.length, oldReader, newReader);
+                first = last + 1;
+            }
+        }
+    }
+
+    private void hunk(List<MyersDiff.Edit> edits, int oldLineCount, LineReader oldReader, LineReader newReader)
+            throws IOException {
+        MyersDiff.Edit first = edits.get(0);
+        MyersDiff.Edit last = edits.get(edits.size() - 1);
+        int beginA = Math.max(0, first.beginA() - CONTEXT);
+        int endA = Math.min(oldLineCount, last.endA() + CONTEXT);
+        int beginB = first.beginB() - (first.beginA() - beginA);
+        int endB = last.endB() + (endA - last.endA());
+        write("@@ -" + range(beginA, endA - beginA) + " +" + range(beginB, endB - beginB) + " @@\n");
+
+        oldReader.skipTo(beginA);
+        newReader.skipTo(beginB);
+        for (MyersDiff.Edit edit : edits) {
+            while (oldReader.line < edit.beginA()) {
+                oldReader.copyLine(out, ' ');
+                newReader.skipLine();
+            }
+            while (oldReader.line < edit.endA()) {
+                oldReader.copyLine(out, '-');
+            }
+            while (newReader.line < edit.endB()) {
+                newReader.copyLine(out, '+');
+            }
+        }
+        while (oldReader.line < endA) {
+            oldReader.copyLine(out, ' ');
+            newReader.skipLine();
+        }
+    }
+
+    private static String range(int begin, int length) {
+        if (length == 0) {
+            return begin + ",0";
+        }
+        return length == 1 ? String.valueOf(begin + 1) : (begin + 1) + "," + length;
+    }
+
+    private Lines scan(String hash) throws IOException {
+        if (hash == null) {
+            return new Lines(new long[0], false);
+        }
+        long[] hashes = new long[64];
+        int count = 0;
+        boolean binary = false;
+        long lineHash = FNV_OFFSET_BASIS;
+        boolean lineOpen = false;
+        long position = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = store.open(hash)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == 0 && position + i < BINARY_PROBE_SIZE) {
+                        binary = true;
+                    }
+                    lineHash = (lineHash ^ (b & 0xff)) * FNV_PRIME;
+                    lineOpen = true;
+                    if (b == '\n') {
+                        if (count == hashes.length) {
+                            hashes = Arrays.copyOf(hashes, count * 2);
+                        }
+                        hashes[count++] = lineHash;
+                        lineHash = FNV_OFFSET_BASIS;
+                        lineOpen = false;
+                    }
+                }
+                position += read;
+            }
+        }
+        if (lineOpen) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count + 1);
+            }
+            hashes[count++] = lineHash;
+        }
+        return new Lines(Arrays.copyOf(hashes, count), binary);
+    }
+
+    private InputStream open(String hash) throws IOException {
+        return hash == null ? InputStream.nullInputStream() : store.open(hash);
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private record Lines(long[] hashes, boolean binary) {
+    }
+
+    private static final class LineReader implements Closeable {
+
+        private final InputStream in;
+        private int line;
+
+        LineReader(InputStream in) {
+            this.in = new BufferedInputStream(in, BUFFER_SIZE);
+        }
+
+        void skipTo(int target) throws IOException {
+            while (line < target) {
+                skipLine();
+            }
+        }
+
+        void skipLine() throws IOException {
+            int b;
+            do {
+                b = in.read();
+            } while (b != -1 && b != '\n');
+            line++;
+        }
+
+        void copyLine(OutputStream out, char prefix) throws IOException {
+            out.write(prefix);
+            int b;
+            while ((b = in.read()) != -1) {
+                out.write(b);
+                if (b == '\n') {
+                    line++;
+                    return;
+                }
+            }
+            out.write(NO_NEWLINE_MARKER);
+            line++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package uj.wmii.pwj.gvt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+class VersionLog {
+
+    static final int INDEX_ENTRY_SIZE = Long.BYTES;
+
+    private static final long PRUNED = -1L;
+    private static final int PRUNE_CHUNK_ENTRIES = 8192;
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES + ObjectStore.HASH_LENGTH;
+    private static final int TIMESTAMP_POSITION = 2 * Integer.BYTES;
+    private static final int HASH_POSITION = TIMESTAMP_POSITION + Long.BYTES;
+    private static final int MESSAGE_POSITION = HASH_POSITION + ObjectStore.HASH_LENGTH;
+
+    private final Path logFile;
+    private final Path indexFile;
+    private volatile boolean cached;
+    private VersionTable table;
+    private FileStamp tableStamp;
+
+    VersionLog(Path logFile, Path indexFile) {
+        this.logFile = logFile;
+        this.indexFile = indexFile;
+    }
+
+    void create() throws IOException {
+        Files.createFile(logFile);
+        Files.createFile(indexFile);
+    }
+
+    int size() throws IOException {
+        return Files.exists(indexFile) ? (int) (Files.size(indexFile) / INDEX_ENTRY_SIZE) : 0;
+    }
+
+    void cacheTable() {
+        cached = true;
+    }
+
+    boolean cachesTable() {
+        return cached;
+    }
+
+    boolean contains(int version) throws IOException {
+        if (cached) {
+            return table().contains(version);
+        }
+        if (version < 0 || version >= size()) {
+            return false;
+        }
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            return readFully(index, (long) version * INDEX_ENTRY_SIZE, Long.BYTES).getLong() != PRUNED;
+        }
+    }
+
+    int first() throws IOException {
+        if (cached) {
+            return table().first();
+        }
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            return firstRetained(index, (int) (index.size() / INDEX_ENTRY_SIZE));
+        }
+    }
+
+    synchronized VersionTable table() throws IOException {
+        FileStamp stamp = FileStamp.of(indexFile);
+        if (stamp.equals(tableStamp)) {
+            return table;
+        }
+        int entries = (int) (stamp.size() / INDEX_ENTRY_SIZE);
+        boolean appended = table != null && stamp.fileKey() != null
+                && stamp.fileKey().equals(tableStamp.fileKey()) && entries >= table.end();
+        if (!appended) {
+            try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                table = new VersionTable(firstRetained(index, entries));
+            }
+        }
+        load(table, entries);
+        tableStamp = stamp;
+        return table;
+    }
+
+    void pruneBefore(int first) throws IOException {
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ);
+             FileChannel pruned = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer tombstones = ByteBuffer.allocate(PRUNE_CHUNK_ENTRIES * INDEX_ENTRY_SIZE);
+            for (int version = 0; version < first; version += PRUNE_CHUNK_ENTRIES) {
+                tombstones.clear();
+                for (int i = version; i < Math.min(first, version + PRUNE_CHUNK_ENTRIES); i++) {
+                    tombstones.putLong(PRUNED);
+                }
+                writeFully(pruned, tombstones.flip());
+            }
+            long position = (long) first * INDEX_ENTRY_SIZE;
+            while (position < index.size()) {
+                position += index.transferTo(position, index.size() - position, pruned);
+            }
+            pruned.force(true);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Fsync.directory(indexFile.getParent());
+    }
+
+    synchronized void append(VersionRecord record) throws IOException {
+        boolean tableCurrent = table != null && table.end() == record.number()
+                && FileStamp.of(indexFile).equals(tableStamp);
+        byte[] message = record.message().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + RECORD_HEADER_SIZE + message.length);
+        buffer.putInt(RECORD_HEADER_SIZE + message.length)
+                .putInt(record.number())
+                .putLong(record.timestamp())
+                .put(record.manifestHash().getBytes(StandardCharsets.US_ASCII))
+                .put(message)
+                .flip();
+
+        try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             FileChannel index = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long offset = log.size();
+            writeFully(log, buffer);
+            writeFully(index, ByteBuffer.allocate(INDEX_ENTRY_SIZE).putLong(offset).flip());
+            log.force(true);
+            index.force(true);
+        }
+        if (tableCurrent) {
+            table.add(record.timestamp(), buffer, HASH_POSITION, MESSAGE_POSITION, message.length);
+            tableStamp = FileStamp.of(indexFile);
+        }
+    }
+
+    void repair() throws IOException {
+        try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long entries = index.size() / INDEX_ENTRY_SIZE;
+            long logEnd = 0;
+            for (; entries > 0; entries--) {
+                long offset = readFully(index, (entries - 1) * INDEX_ENTRY_SIZE, Long.BYTES).getLong();
+                if (offset >= 0 && offset + Integer.BYTES <= log.size()) {
+                    int length = readFully(log, offset, Integer.BYTES).getInt();
+                    long end = offset + Integer.BYTES + length;
+                    if (length >= RECORD_HEADER_SIZE && end <= log.size()) {
+                        logEnd = end;
+                        break;
+                    }
+                }
+            }
+            if (index.size() > entries * INDEX_ENTRY_SIZE || log.size() > logEnd) {
+                index.truncate(entries * INDEX_ENTRY_SIZE);
+                log.truncate(logEnd);
+                log.force(true);
+                index.force(true);
+            }
+        }
+    }
+
+    VersionRecord read(int version) throws IOException {
+        return cached ? table().record(version) : readRange(version, version).get(0);
+    }
+
+    String manifestHash(int version) throws IOException {
+        return cached ? table().manifestHash(version) : read(version).manifestHash();
+    }
+
+    String history(int first, int last) throws IOException {
+        if (cached) {
+            return table().history(first, last);
+        }
+        List<VersionRecord> records = readRange(first, last);
+        StringBuilder history = new StringBuilder();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            String message = records.get(i).message();
+            int end = 0;
+            while (end < message.length() && message.charAt(end) != '\n' && message.charAt(end) != '\r') {
+                end++;
+            }
+            history.append(records.get(i).number()).append(": ").append(message.substring(0, end).trim())
+                    .append('\n');
+        }
+        return history.toString();
+    }
+
+    List<VersionRecord> readRange(int first, int last) throws IOException {
+        List<VersionRecord> records = new ArrayList<>();
+        if (first > last) {
+            return records;
+        }
+        try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+             FileChannel logChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            long entries = indexChannel.size() / INDEX_ENTRY_SIZE;
+            Window index = new Window(indexChannel);
+            Window log = new Window(logChannel);
+            for (int version = first; version <= last; version++) {
+                long offset = version >= 0 && version < entries ? index.getLong((long) version * INDEX_ENTRY_SIZE) : PRUNED;
+                if (offset == PRUNED) {
+                    throw new InvalidVersionException(version);
+                }
+                int length = log.getInt(offset);
+                int position = log.map(offset, Integer.BYTES + length);
+                String manifestHash = StandardCharsets.US_ASCII.decode(
+                        log.buffer.slice(position + HASH_POSITION, ObjectStore.HASH_LENGTH)).toString();
+                String message = StandardCharsets.UTF_8.decode(
+                        log.buffer.slice(position + MESSAGE_POSITION, length - RECORD_HEADER_SIZE)).toString();
+                records.add(new VersionRecord(log.buffer.getInt(position + Integer.BYTES),
+                        log.buffer.getLong(position + TIMESTAMP_POSITION), manifestHash, message));
+            }
+        }
+        return records;
+    }
+
+    private static int firstRetained(FileChannel index, int entries) throws IOException {
+        int low = 0;
+        int high = entries;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (readFully(index, (long) middle * INDEX_ENTRY_SIZE, Long.BYTES).getLong() == PRUNED) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void load(VersionTable table, int end) throws IOException {
+        if (table.end() >= end) {
+            return;
+        }
+        try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+             FileChannel logChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            Window index = new Window(indexChannel);
+            Window log = new Window(logChannel);
+            for (int version = table.end(); version < end; version++) {
+                long offset = index.getLong((long) version * INDEX_ENTRY_SIZE);
+                int length = log.getInt(offset);
+                int position = log.map(offset, Integer.BYTES + length);
+                table.add(log.buffer.getLong(position + TIMESTAMP_POSITION), log.buffer, position + HASH_POSITION,
+                        position + MESSAGE_POSITION, length - RECORD_HEADER_SIZE);
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at position " + position + ".");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    record VersionRecord(int number, long timestamp, String manifestHash, String message) {
+    }
+
+    // A single mapping cannot exceed 2 GB, so the files are mapped a window at a time.
+    private static final class Window {
+
+        private final FileChannel channel;
+        private long start;
+        private MappedByteBuffer buffer;
+
+        Window(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long getLong(long position) throws IOException {
+            int at = map(position, Long.BYTES);
+            return buffer.getLong(at);
+        }
+
+        int getInt(long position) throws IOException {
+            int at = map(position, Integer.BYTES);
+            return buffer.getInt(at);
+        }
+
+        int map(long position, int length) throws IOException {
+            if (buffer == null || position < start || position + length > start + buffer.capacity()) {
+                start = position;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(channel.size() - position, Math.max(WINDOW_SIZE, length)));
+            }
+            return (int) (position - start);
+        }
+    }
+}
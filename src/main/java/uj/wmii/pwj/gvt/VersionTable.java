@@ -0,0 +1,121 @@
+package uj.wmii.pwj.gvt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+final class VersionTable {
+
+    private static final int HASH_BYTES = ObjectStore.HASH_LENGTH / 2;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int first;
+    private int size;
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] messageOffsets = new int[INITIAL_CAPACITY + 1];
+    private byte[] manifestHashes = new byte[INITIAL_CAPACITY * HASH_BYTES];
+    private byte[] arena = new byte[INITIAL_CAPACITY * 64];
+
+    VersionTable(int first) {
+        this.first = first;
+    }
+
+    synchronized int first() {
+        return first;
+    }
+
+    synchronized int end() {
+        return first + size;
+    }
+
+    synchronized boolean contains(int version) {
+        return version >= first && version < first + size;
+    }
+
+    synchronized void add(long timestamp, ByteBuffer source, int hashPosition, int messagePosition,
+                          int messageLength) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            messageOffsets = Arrays.copyOf(messageOffsets, capacity + 1);
+            manifestHashes = Arrays.copyOf(manifestHashes, capacity * HASH_BYTES);
+        }
+        int messageOffset = messageOffsets[size];
+        if (messageOffset + messageLength > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, messageOffset + messageLength));
+        }
+        timestamps[size] = timestamp;
+        for (int i = 0; i < HASH_BYTES; i++) {
+            int high = Character.digit(source.get(hashPosition + 2 * i), 16);
+            int low = Character.digit(source.get(hashPosition + 2 * i + 1), 16);
+            manifestHashes[size * HASH_BYTES + i] = (byte) (high << 4 | low);
+        }
+        source.get(messagePosition, arena, messageOffset, messageLength);
+        messageOffsets[size + 1] = messageOffset + messageLength;
+        size++;
+    }
+
+    synchronized String manifestHash(int version) {
+        int index = indexOf(version);
+        return HexFormat.of().formatHex(manifestHashes, index * HASH_BYTES, (index + 1) * HASH_BYTES);
+    }
+
+    synchronized VersionLog.VersionRecord record(int version) {
+        int index = indexOf(version);
+        String message = new String(arena, messageOffsets[index], messageOffsets[index + 1] - messageOffsets[index],
+                StandardCharsets.UTF_8);
+        return new VersionLog.VersionRecord(version, timestamps[index], manifestHash(version), message);
+    }
+
+    synchronized String history(int from, int to) {
+        byte[] out = new byte[Math.max(0, to - from + 1) * 32];
+        int length = 0;
+        for (int version = to; version >= from; version--) {
+            int index = indexOf(version);
+            int start = messageOffsets[index];
+            int end = start;
+            int messageEnd = messageOffsets[index + 1];
+            while (end < messageEnd && arena[end] != '\n' && arena[end] != '\r') {
+                end++;
+            }
+            while (start < end && (arena[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (arena[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+
+            int needed = length + 11 + 2 + (end - start) + 1;
+            if (needed > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, needed));
+            }
+            length = writeNumber(out, length, version);
+            out[length++] = ':';
+            out[length++] = ' ';
+            System.arraycopy(arena, start, out, length, end - start);
+            length += end - start;
+            out[length++] = '\n';
+        }
+        return new String(out, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int indexOf(int version) {
+        if (!contains(version)) {
+            throw new InvalidVersionException(version);
+        }
+        return version - first;
+    }
+
+    private static int writeNumber(byte[] out, int position, int number) {
+        int digits = 1;
+        for (int rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            out[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return position + digits;
+    }
+}
@@ -0,0 +1,112 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkedStorageTest {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+
+    @TempDir
+    Path root;
+
+    private Gvt.VersionControl versionControl;
+    private Path file;
+    private byte[] content;
+
+    @BeforeEach
+    public void createRepository() throws IOException {
+        new Gvt.VersionControl(root).init();
+        Files.writeString(root.resolve(".gvt/config"), "storage.mode=chunked\nstorage.codec=none\n");
+        versionControl = new Gvt.VersionControl(root);
+
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        file = root.resolve("data.bin");
+        Files.write(file, content);
+        versionControl.add("data.bin", "");
+    }
+
+    @Test
+    public void editStoresOnlyTheChangedChunks() throws IOException {
+        byte[] original = content.clone();
+        long before = storedBytes();
+
+        content[FILE_SIZE / 2] ^= 1;
+        Files.write(file, content);
+        versionControl.commit("data.bin", "edit");
+
+        assertThat(storedBytes() - before).isLessThan(2L * Chunker.MAX_SIZE);
+        versionControl.checkout(1);
+        assertThat(Files.readAllBytes(file)).isEqualTo(original);
+        versionControl.checkout(2);
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+    }
+
+    @Test
+    public void insertionShiftsNoChunkBoundariesAfterIt() throws IOException {
+        long before = storedBytes();
+
+        byte[] inserted = new byte[FILE_SIZE + 100];
+        System.arraycopy(content, 0, inserted, 0, FILE_SIZE / 3);
+        System.arraycopy(content, FILE_SIZE / 3, inserted, FILE_SIZE / 3 + 100, FILE_SIZE - FILE_SIZE / 3);
+        Files.write(file, inserted);
+        versionControl.commit("data.bin", "insert");
+        Files.write(file, new byte[5000], StandardOpenOption.APPEND);
+        versionControl.commit("data.bin", "append");
+
+        assertThat(storedBytes() - before).isLessThan(4L * Chunker.MAX_SIZE);
+        byte[] latest = Files.readAllBytes(file);
+        versionControl.checkout(1);
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        versionControl.checkout(3);
+        assertThat(Files.readAllBytes(file)).isEqualTo(latest);
+        assertThat(versionControl.status().modified()).isEmpty();
+    }
+
+    @Test
+    public void pruneKeepsTheChunksOfRetainedFiles() throws IOException {
+        Files.writeString(root.resolve(".gvt/config"), "gc.gracePeriodSeconds=0\n", StandardOpenOption.APPEND);
+        versionControl = new Gvt.VersionControl(root);
+        content[FILE_SIZE / 2] ^= 1;
+        Files.write(file, content);
+        versionControl.commit("data.bin", "edit");
+        FileTime past = FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS));
+        try (Stream<Path> objects = Files.list(root.resolve(".gvt/objects"))) {
+            for (Path object : objects.toList()) {
+                Files.setLastModifiedTime(object, past);
+            }
+        }
+
+        Gvt.VersionControl.GcResult result = versionControl.pruneKeepLast(1);
+        assertThat(result.removedObjects()).isPositive();
+        assertThat(result.freedBytes()).isLessThan(2L * Chunker.MAX_SIZE + 4096);
+        Files.delete(file);
+        versionControl.checkout(2);
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        assertThat(versionControl.gc().removedObjects()).isZero();
+    }
+
+    private long storedBytes() throws IOException {
+        try (Stream<Path> objects = Files.list(root.resolve(".gvt/objects"))) {
+            long total = 0;
+            for (Path object : objects.toList()) {
+                total += Files.size(object);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrentCommitTest {
+
+    private static final int WRITERS = 8;
+    private static final int COMMITS_PER_WRITER = 25;
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void concurrentCommittersLoseNoVersion() throws Exception {
+        new Gvt.VersionControl(root).init();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int writer = 0; writer < WRITERS; writer++) {
+                int id = writer;
+                writers.add(executor.submit((Callable<Void>) () -> {
+                    Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+                    String fileName = "writer" + id + ".txt";
+                    Files.writeString(root.resolve(fileName), "0");
+                    start.await();
+                    versionControl.add(fileName, "writer " + id + " add");
+                    for (int commit = 1; commit <= COMMITS_PER_WRITER; commit++) {
+                        Files.writeString(root.resolve(fileName), String.valueOf(commit));
+                        versionControl.commit(fileName, "writer " + id + " commit " + commit);
+                    }
+                    return null;
+                }));
+            }
+            Future<Integer> reader = executor.submit(() -> {
+                Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+                start.await();
+                int reads = 0;
+                while (writing.get()) {
+                    assertThat(versionControl.history(5)).isNotEmpty();
+                    reads++;
+                }
+                return reads;
+            });
+
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+            writing.set(false);
+            assertThat(reader.get(1, TimeUnit.MINUTES)).isPositive();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int expectedVersions = WRITERS * (COMMITS_PER_WRITER + 1);
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        List<String> history = versionControl.history().lines().toList();
+        assertThat(history).hasSize(expectedVersions + 1);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < history.size(); i++) {
+            String prefix = (expectedVersions - i) + ": ";
+            assertThat(history.get(i)).startsWith(prefix);
+            messages.add(history.get(i).substring(prefix.length()));
+        }
+        for (int writer = 0; writer < WRITERS; writer++) {
+            assertThat(messages).containsOnlyOnce("writer " + writer + " add");
+            for (int commit = 1; commit <= COMMITS_PER_WRITER; commit++) {
+                assertThat(messages).containsOnlyOnce("writer " + writer + " commit " + commit);
+            }
+        }
+
+        for (int writer = 0; writer < WRITERS; writer++) {
+            Files.delete(root.resolve("writer" + writer + ".txt"));
+        }
+        versionControl.checkout(expectedVersions);
+        for (int writer = 0; writer < WRITERS; writer++) {
+            assertThat(root.resolve("writer" + writer + ".txt")).hasContent(String.valueOf(COMMITS_PER_WRITER));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DiffTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void findsAShortestEditScript() {
+        long[] a = {'A', 'B', 'C', 'A', 'B', 'B', 'A'};
+        long[] b = {'C', 'B', 'A', 'B', 'A', 'C'};
+        List<MyersDiff.Edit> edits = MyersDiff.diff(a, b);
+        assertValid(a, b, edits);
+        assertThat(size(edits)).isEqualTo(5);
+
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            long[] x = randomLines(random, random.nextInt(40), 3);
+            long[] y = randomLines(random, random.nextInt(40), 3);
+            List<MyersDiff.Edit> found = MyersDiff.diff(x, y);
+            assertValid(x, y, found);
+            assertThat(size(found)).isEqualTo(x.length + y.length - 2 * lcs(x, y));
+        }
+    }
+
+    @Test
+    public void equalHashesAreMatchedAsEqualLines() {
+        // lines are compared only by hash, so repeated (or colliding) hashes must still line up
+        long[] a = {0, 0, 0, 1, 0, 0};
+        long[] b = {0, 0, 1, 0, 0, 0};
+        List<MyersDiff.Edit> edits = MyersDiff.diff(a, b);
+        assertValid(a, b, edits);
+        assertThat(size(edits)).isEqualTo(2);
+        assertThat(MyersDiff.diff(new long[]{5, 5, 5}, new long[]{5, 5, 5})).isEmpty();
+    }
+
+    @Test
+    public void costLimitKeepsLargeDiffsValid() {
+        long[] a = randomLines(new Random(1), 2000, Long.MAX_VALUE);
+        long[] b = new long[2000];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = -1 - i;
+        }
+        assertThat(MyersDiff.diff(a, b)).containsExactly(new MyersDiff.Edit(0, 2000, 0, 2000));
+
+        Random random = new Random(2);
+        long[] x = randomLines(random, 5000, 4);
+        long[] y = x.clone();
+        for (int i = 0; i < 1500; i++) {
+            y[random.nextInt(y.length)] = random.nextInt(4);
+        }
+        List<MyersDiff.Edit> edits = MyersDiff.diff(x, y);
+        assertValid(x, y, edits);
+        assertThat(size(edits)).isLessThan(x.length + y.length);
+    }
+
+    @Test
+    public void writesAHunkWithContext() throws IOException {
+        assertThat(diff("a\nb\nc\n", "a\nB\nc\n")).isEqualTo("""
+                --- a/f.txt
+                +++ b/f.txt
+                @@ -1,3 +1,3 @@
+                 a
+                -b
+                +B
+                 c
+                """);
+        assertThat(diff("a\n", "a\n")).isEmpty();
+        assertThat(diff(null, "a\n")).isEqualTo("""
+                --- /dev/null
+                +++ b/f.txt
+                @@ -0,0 +1 @@
+                +a
+                """);
+    }
+
+    @Test
+    public void mergesHunksWhoseContextOverlaps() throws IOException {
+        String original = numberedLines(20);
+        String near = original.replace("\n5\n", "\nfive\n").replace("11\n", "eleven\n");
+        String merged = diff(original, near);
+        assertThat(merged).containsOnlyOnce("@@ ");
+        assertThat(merged).contains("@@ -2,13 +2,13 @@\n");
+
+        String far = original.replace("\n5\n", "\nfive\n").replace("13\n", "thirteen\n");
+        String separate = diff(original, far);
+        assertThat(separate).contains("@@ -2,7 +2,7 @@\n", "@@ -10,7 +10,7 @@\n");
+        assertThat(separate.split("@@ ")).hasSize(3);
+    }
+
+    @Test
+    public void marksALastLineWithoutNewline() throws IOException {
+        assertThat(diff("a\nb", "a\nc")).isEqualTo("""
+                --- a/f.txt
+                +++ b/f.txt
+                @@ -1,2 +1,2 @@
+                 a
+                -b
+                \\ No newline at end of file
+                +c
+                \\ No newline at end of file
+                """);
+        // the terminator is part of the line hash, so dropping it changes the line
+        assertThat(diff("a\n", "a")).isEqualTo("""
+                --- a/f.txt
+                +++ b/f.txt
+                @@ -1 +1 @@
+                -a
+                +a
+                \\ No newline at end of file
+                """);
+    }
+
+    private String diff(String oldContent, String newContent) throws IOException {
+        ObjectStore store = new ObjectStore(root, Codec.NONE);
+        String oldHash = oldContent == null ? null : store.store(oldContent.getBytes(StandardCharsets.UTF_8));
+        String newHash = newContent == null ? null : store.store(newContent.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UnifiedDiff(store, out).file("f.txt", oldHash, newHash);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String numberedLines(int count) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            lines.append(i).append('\n');
+        }
+        return lines.toString();
+    }
+
+    private static long[] randomLines(Random random, int count, long distinct) {
+        long[] lines = new long[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = distinct == Long.MAX_VALUE ? random.nextLong() & Long.MAX_VALUE : random.nextInt((int) distinct);
+        }
+        return lines;
+    }
+
+    private static int size(List<MyersDiff.Edit> edits) {
+        return edits.stream().mapToInt(e -> e.endA() - e.beginA() + e.endB() - e.beginB()).sum();
+    }
+
+    /**
+     * Checks that the edits are ordered, disjoint and that every line outside them is equal on both sides.
+     */
+    private static void assertValid(long[] a, long[] b, List<MyersDiff.Edit> edits) {
+        int i = 0;
+        int j = 0;
+        for (MyersDiff.Edit edit : edits) {
+            assertThat(edit.beginA() - i).isEqualTo(edit.beginB() - j);
+            assertThat(edit.beginA()).isGreaterThanOrEqualTo(i);
+            while (i < edit.beginA()) {
+                assertThat(a[i++]).isEqualTo(b[j++]);
+            }
+            i = edit.endA();
+            j = edit.endB();
+        }
+        assertThat(a.length - i).isEqualTo(b.length - j);
+        while (i < a.length) {
+            assertThat(a[i++]).isEqualTo(b[j++]);
+        }
+    }
+
+    private static int lcs(long[] a, long[] b) {
+        int[][] lengths = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i--) {
+            for (int j = b.length - 1; j >= 0; j--) {
+                lengths[i][j] = a[i] == b[j] ? lengths[i + 1][j + 1] + 1
+                        : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        return lengths[0][0];
+    }
+}
@@ -0,0 +1,162 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GvtDaemonTest {
+
+    @TempDir
+    Path root;
+
+    private GvtDaemon daemon;
+    private Thread serving;
+
+    @AfterEach
+    public void stopDaemon() throws Exception {
+        if (daemon != null) {
+            daemon.stop();
+            serving.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @Test
+    public void forwardsCommandsToTheDaemon() throws Exception {
+        new Gvt.VersionControl(root).init();
+        startDaemon();
+
+        Result version = run("--stats", "version");
+        assertThat(version.forwarded()).isTrue();
+        assertThat(version.code()).isZero();
+        assertThat(version.stdout()).isEqualTo("Version: 0\nGVT initialized.\n");
+        assertThat(version.stderr()).startsWith("version: ");
+
+        Result invalid = run("version", "7");
+        assertThat(invalid.forwarded()).isTrue();
+        assertThat(invalid.code()).isEqualTo(60);
+        assertThat(invalid.stdout()).isEqualTo("Invalid version number: 7\n");
+        assertThat(invalid.stderr()).isEmpty();
+
+        Files.writeString(root.resolve("a.txt"), "a");
+        assertThat(run("add", "a.txt").code()).isZero();
+        assertThat(new Gvt.VersionControl(root).version().number()).isEqualTo(1);
+    }
+
+    @Test
+    public void runsInProcessWhenNoDaemonIsListening() throws Exception {
+        new Gvt.VersionControl(root).init();
+        assertThat(GvtDaemon.isRunning(socketFile())).isFalse();
+
+        Result version = run("version");
+        assertThat(version.forwarded()).isFalse();
+        assertThat(version.code()).isZero();
+        assertThat(version.stdout()).isEqualTo("Version: 0\nGVT initialized.\n");
+    }
+
+    @Test
+    public void ignoresAStaleSocketFile() throws Exception {
+        new Gvt.VersionControl(root).init();
+        try (ServerSocketChannel killed = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            killed.bind(UnixDomainSocketAddress.of(socketFile()));
+        }
+        assertThat(Files.exists(socketFile())).isTrue();
+        assertThat(GvtDaemon.isRunning(socketFile())).isFalse();
+
+        Result version = run("version");
+        assertThat(version.forwarded()).isFalse();
+        assertThat(version.code()).isZero();
+        assertThat(version.stdout()).isEqualTo("Version: 0\nGVT initialized.\n");
+
+        // a new daemon replaces the stale socket
+        startDaemon();
+        assertThat(run("version").forwarded()).isTrue();
+    }
+
+    private void startDaemon() throws InterruptedException {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.cacheVersions();
+        daemon = new GvtDaemon(socketFile(), versionControl);
+        serving = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!GvtDaemon.isRunning(socketFile())) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Path socketFile() {
+        return root.resolve(".gvt/gvt.sock");
+    }
+
+    /**
+     * Runs the command the way {@code Gvt.main} does and captures what it prints. Output
+     * printed through {@link ExitHandler#exit} means the command ran in this process.
+     */
+    private Result run(String... args) {
+        RecordingExitHandler exitHandler = new RecordingExitHandler();
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        try {
+            System.setOut(new PrintStream(stdout, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(stderr, true, StandardCharsets.UTF_8));
+            List<String> arguments = new ArrayList<>(List.of("-C", root.toString()));
+            arguments.addAll(List.of(args));
+            Gvt.main(exitHandler, arguments.toArray(new String[0]));
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return new Result(exitHandler.code, exitHandler.messages.isEmpty(),
+                stdout.toString(StandardCharsets.UTF_8), stderr.toString(StandardCharsets.UTF_8));
+    }
+
+    private record Result(int code, boolean forwarded, String stdout, String stderr) {
+    }
+
+    private static class RecordingExitHandler extends ExitHandler {
+
+        private final List<String> messages = new ArrayList<>();
+        private int code = Integer.MIN_VALUE;
+
+        @Override
+        void exit(int code, String message) {
+            messages.add(message);
+            super.exit(code, message);
+        }
+
+        @Override
+        void exitOperation(int code) {
+            this.code = code;
+        }
+
+        @Override
+        boolean terminates() {
+            return false;
+        }
+    }
+}
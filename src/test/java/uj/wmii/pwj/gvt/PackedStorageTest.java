@@ -0,0 +1,328 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PackedStorageTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+
+    @TempDir
+    Path root;
+
+    private byte[] content;
+
+    @BeforeEach
+    public void createContent() {
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+    }
+
+    @Test
+    public void deltaReproducesTheTarget() {
+        byte[] inserted = new byte[FILE_SIZE + 10];
+        System.arraycopy(content, 0, inserted, 0, 1000);
+        System.arraycopy(content, 1000, inserted, 1010, FILE_SIZE - 1000);
+        byte[] unrelated = new byte[FILE_SIZE];
+        new Random(7).nextBytes(unrelated);
+        List<byte[]> targets = List.of(content, edited(content, 100, 5000, FILE_SIZE - 1), inserted,
+                Arrays.copyOfRange(content, 500, FILE_SIZE - 500), Arrays.copyOf(content, 10), new byte[0], unrelated);
+
+        for (byte[] target : targets) {
+            byte[] delta = Delta.compute(content, target);
+            assertThat(Delta.apply(content, delta)).isEqualTo(target);
+        }
+        assertThat(Delta.compute(content, inserted).length).isLessThan(100);
+        assertThat(Delta.apply(new byte[0], Delta.compute(new byte[0], content))).isEqualTo(content);
+    }
+
+    @Test
+    public void streamedDeltaMatchesTheAppliedOne() throws IOException {
+        byte[] target = edited(content, 0, 3000, FILE_SIZE - 1);
+        byte[] delta = Delta.compute(content, target);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(Delta.apply(content, delta, out)).isEqualTo(target.length);
+        assertThat(out.toByteArray()).isEqualTo(target);
+
+        byte[] truncated = Arrays.copyOf(delta, delta.length - 1);
+        assertThatThrownBy(() -> Delta.apply(content, truncated, new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalArgumentException.class);
+        byte[] extended = Arrays.copyOf(delta, delta.length + 3);
+        extended[delta.length] = 2;
+        extended[delta.length + 1] = 1;
+        assertThatThrownBy(() -> Delta.apply(content, extended)).isInstanceOf(IllegalArgumentException.class);
+        byte[] unknown = Arrays.copyOf(delta, delta.length + 1);
+        unknown[delta.length] = 9;
+        assertThatThrownBy(() -> Delta.apply(content, unknown, new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void codecsReproduceTheContent() throws IOException {
+        List<byte[]> contents = List.of(new byte[0], "gvt".getBytes(StandardCharsets.UTF_8), content,
+                new byte[3 * Codec.BUFFER_SIZE + 1]);
+        for (Codec codec : Codec.ALL) {
+            ObjectStore store = new ObjectStore(Files.createDirectory(root.resolve(codec.name())), codec,
+                    new ObjectCache(0));
+            for (byte[] original : contents) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream out = codec.compress(compressed)) {
+                    out.write(original);
+                }
+                try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed.toByteArray()))) {
+                    assertThat(in.readAllBytes()).isEqualTo(original);
+                }
+
+                String hash = store.store(original);
+                assertThat(hash).isEqualTo(ObjectStore.hash(original));
+                assertThat(store.read(hash)).isEqualTo(original);
+                Path restored = root.resolve("restored.bin");
+                store.restore(hash, restored);
+                assertThat(Files.readAllBytes(restored)).isEqualTo(original);
+            }
+        }
+    }
+
+    @Test
+    public void restoresDeltaChainsToFiles() throws IOException {
+        for (Codec codec : Codec.ALL) {
+            // no cache, so every restore applies the deltas instead of copying a cached result
+            ObjectStore store = new ObjectStore(Files.createDirectory(root.resolve(codec.name())), codec,
+                    new ObjectCache(0));
+            byte[] second = edited(content, 10, 20000);
+            byte[] third = edited(second, 40000);
+            String base = store.store(content);
+            String middle = store.store(second);
+            String last = store.store(third);
+            assertThat(store.deltify(middle, base, 2)).isPositive();
+            assertThat(store.deltify(last, middle, 2)).isPositive();
+            assertThat(store.chainDepth(last)).isEqualTo(2);
+
+            Path restored = root.resolve("restored.bin");
+            Files.writeString(restored, "stale content");
+            store.restore(last, restored);
+            assertThat(Files.readAllBytes(restored)).isEqualTo(third);
+            store.restore(middle, restored);
+            assertThat(Files.readAllBytes(restored)).isEqualTo(second);
+            assertThat(store.read(last)).isEqualTo(third);
+        }
+    }
+
+    @Test
+    public void pendingDeltasAreCheckedAgainWhenPublished() throws IOException {
+        ObjectStore store = new ObjectStore(root, Codec.NONE);
+        byte[] second = edited(content, 100);
+        String first = store.store(content);
+        String middle = store.store(second);
+        String last = store.store(edited(second, 200));
+
+        ObjectStore.PendingDelta lastAgainstMiddle = store.prepareDelta(last, middle, 1);
+        ObjectStore.PendingDelta middleAgainstLast = store.prepareDelta(middle, last, 1);
+        assertThat(store.deltify(middle, first, 1)).isPositive();
+        // the base is a delta now, which would make the chain longer than allowed
+        assertThat(store.publishDelta(lastAgainstMiddle)).isZero();
+        // the object is a delta already
+        assertThat(store.publishDelta(middleAgainstLast)).isZero();
+        assertThat(store.chainDepth(last)).isZero();
+        assertThat(store.read(middle)).isEqualTo(second);
+        try (Stream<Path> files = Files.list(root)) {
+            assertThat(files.filter(file -> file.getFileName().toString().startsWith("tmp-"))).isEmpty();
+        }
+    }
+
+    @Test
+    public void basesAreFoundInStoresWrittenBeforeTheyWereRecorded() throws IOException {
+        ObjectStore store = new ObjectStore(root, Codec.NONE);
+        String first = store.store(content);
+        String second = store.store(edited(content, 100));
+        assertThat(store.deltify(second, first, 10)).isPositive();
+        Files.delete(root.resolve("delta-bases"));
+
+        ObjectStore reopened = new ObjectStore(root, Codec.NONE);
+        String third = reopened.store(edited(content, 200));
+        assertThat(reopened.deltify(first, third, 10)).isZero();
+        assertThat(reopened.deltify(third, first, 10)).isPositive();
+        assertThat(Files.readString(root.resolve("delta-bases")).lines().filter(line -> !line.isEmpty()))
+                .containsExactly(first);
+    }
+
+    @Test
+    public void objectsLargerThanTheLimitStayFull() throws IOException {
+        ObjectStore store = new ObjectStore(root, Codec.DEFLATE);
+        // compresses to a few kilobytes, but is read into memory at its full size
+        byte[] large = new byte[17 * 1024 * 1024];
+        String small = store.store(content);
+        String base = store.store(large);
+        large[5] = 1;
+        String target = store.store(large);
+        assertThat(store.deltify(target, base, 10)).isZero();
+        assertThat(store.deltify(small, base, 10)).isZero();
+        assertThat(store.deltify(base, small, 10)).isZero();
+        assertThat(store.chainDepth(target)).isZero();
+    }
+
+    @Test
+    public void objectsUsedAsBasesAreNotDeltified() throws IOException {
+        Gvt.VersionControl versionControl = packedRepository(1);
+        Path x = root.resolve("x.bin");
+        Path y = root.resolve("y.bin");
+        Files.write(x, content);
+        Files.write(y, edited(content, 100));
+        versionControl.add(List.of("x.bin", "y.bin"), "");
+        byte[] secondX = edited(content, 2000);
+        Files.write(x, secondX);
+        versionControl.commit("x.bin", "");
+        // the original content of x is the base of its second revision
+        Files.write(y, content);
+        versionControl.commit("y.bin", "");
+
+        ObjectStore store = store();
+        for (String hash : storedHashes()) {
+            assertThat(store.chainDepth(hash)).isLessThanOrEqualTo(1);
+        }
+        versionControl.checkout(2);
+        assertThat(Files.readAllBytes(x)).isEqualTo(secondX);
+        assertThat(Files.readAllBytes(y)).isEqualTo(edited(content, 100));
+    }
+
+    @Test
+    public void repackKeepsChainsWithinTheLimit() throws IOException {
+        new Gvt.VersionControl(root).init();
+        Files.writeString(root.resolve(".gvt/config"), "storage.maxDeltaChain=3\nstorage.codec=none\n");
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        Path file = root.resolve("data.bin");
+        List<byte[]> revisions = new ArrayList<>();
+        byte[] revision = content;
+        for (int i = 0; i < 10; i++) {
+            revision = edited(revision, i * 1000);
+            revisions.add(revision);
+            Files.write(file, revision);
+            if (i == 0) {
+                versionControl.add("data.bin", "");
+            } else {
+                versionControl.commit("data.bin", "");
+            }
+        }
+
+        assertThat(versionControl.repack()).isGreaterThan(5L * FILE_SIZE);
+        ObjectStore store = store();
+        for (String hash : storedHashes()) {
+            assertThat(store.chainDepth(hash)).isLessThanOrEqualTo(3);
+        }
+        assertThat(versionControl.repack()).isZero();
+        for (int version = 1; version <= revisions.size(); version++) {
+            versionControl.checkout(version);
+            assertThat(Files.readAllBytes(file)).isEqualTo(revisions.get(version - 1));
+        }
+    }
+
+    @Test
+    public void pruneKeepsTheBasesOfRetainedDeltas() throws IOException {
+        Gvt.VersionControl versionControl = packedRepository(10);
+        Path file = root.resolve("data.bin");
+        Files.write(file, content);
+        versionControl.add("data.bin", "");
+        byte[] revision = content;
+        for (int i = 1; i <= 3; i++) {
+            revision = edited(revision, i * 1000);
+            Files.write(file, revision);
+            versionControl.commit("data.bin", "");
+        }
+        ageObjects();
+
+        Gvt.VersionControl.GcResult result = versionControl.pruneKeepLast(1);
+        assertThat(result.prunedVersions()).isEqualTo(4);
+        assertThat(result.removedObjects()).isPositive();
+        // the only full revision belongs to a pruned version, but the retained delta is stored against it
+        assertThat(store().contains(ObjectStore.hash(content))).isTrue();
+        Files.delete(file);
+        versionControl.checkout(4);
+        assertThat(Files.readAllBytes(file)).isEqualTo(revision);
+        assertThat(versionControl.gc().removedObjects()).isZero();
+    }
+
+    @Test
+    public void pruneWithinTheGracePeriodKeepsObjectsBelowFreshTrees() throws IOException {
+        new Gvt.VersionControl(root).init();
+        Files.writeString(root.resolve(".gvt/config"), "storage.mode=packed\nstorage.codec=none\n");
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        Path a = root.resolve("a.txt");
+        Files.write(a, content);
+        versionControl.add("a.txt", "");
+        byte[] revision = edited(content, 1000);
+        Files.write(a, revision);
+        versionControl.commit("a.txt", "");
+        ageObjects(3);
+        Path b = root.resolve("b.txt");
+        Files.writeString(b, "b");
+        // the tree of this version is fresh, while the delta of a.txt it refers to is not
+        versionControl.add("b.txt", "");
+
+        Gvt.VersionControl.GcResult result = versionControl.pruneKeepLast(1);
+        assertThat(result.prunedVersions()).isEqualTo(3);
+        Files.delete(a);
+        Files.delete(b);
+        versionControl.checkout(3);
+        assertThat(Files.readAllBytes(a)).isEqualTo(revision);
+        assertThat(Files.readString(b)).isEqualTo("b");
+    }
+
+    private Gvt.VersionControl packedRepository(int maxDeltaChain) throws IOException {
+        new Gvt.VersionControl(root).init();
+        Files.writeString(root.resolve(".gvt/config"), "storage.mode=packed\nstorage.maxDeltaChain=" + maxDeltaChain
+                + "\nstorage.codec=none\ngc.gracePeriodSeconds=0\n");
+        return new Gvt.VersionControl(root);
+    }
+
+    private void ageObjects() throws IOException {
+        ageObjects(1);
+    }
+
+    private void ageObjects(int hours) throws IOException {
+        FileTime past = FileTime.from(Instant.now().minus(hours, ChronoUnit.HOURS));
+        store().list((file, hash, form, attributes) -> Files.setLastModifiedTime(file, past));
+    }
+
+    private ObjectStore store() {
+        return new ObjectStore(root.resolve(".gvt/objects"), Codec.NONE);
+    }
+
+    private List<String> storedHashes() throws IOException {
+        List<String> hashes = new ArrayList<>();
+        store().list((file, hash, form, attributes) -> {
+            if (hash != null) {
+                hashes.add(hash);
+            }
+        });
+        return hashes;
+    }
+
+    private static byte[] edited(byte[] original, int... positions) {
+        byte[] copy = original.clone();
+        for (int position : positions) {
+            copy[position] ^= 1;
+        }
+        return copy;
+    }
+}
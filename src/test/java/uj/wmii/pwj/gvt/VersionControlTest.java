@@ -0,0 +1,696 @@
+package uj.wmii.pwj.gvt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class VersionControlTest {
+
+    private static final int THREADS = 4;
+    private static final int COMMITS_PER_THREAD = 10;
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void reportsOutcomesWithResultsAndExceptions() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        assertThatThrownBy(versionControl::history).isInstanceOf(NotInitializedException.class);
+        versionControl.init();
+        assertThatThrownBy(versionControl::init).isInstanceOf(AlreadyInitializedException.class);
+
+        Files.writeString(root.resolve("a.txt"), "a");
+        Gvt.VersionControl.BatchResult added = versionControl.add("a.txt", "add a");
+        assertThat(added.processed()).containsExactly("a.txt");
+        assertThat(added.version()).isEqualTo(1);
+
+        Gvt.VersionControl.BatchResult again = versionControl.add("a.txt", "");
+        assertThat(again.processed()).isEmpty();
+        assertThat(again.skipped()).containsExactly("a.txt");
+        assertThat(again.version()).isEqualTo(-1);
+        assertThat(versionControl.version().number()).isEqualTo(1);
+        assertThat(versionControl.version(1).message()).isEqualTo("add a\n");
+
+        assertThatThrownBy(() -> versionControl.add("missing.txt", "")).isInstanceOf(NoSuchFileException.class);
+        assertThatThrownBy(() -> versionControl.checkout(2))
+                .isInstanceOfSatisfying(InvalidVersionException.class, e -> assertThat(e.version()).isEqualTo(2));
+        assertThat(versionControl.detach("b.txt").version()).isEqualTo(-1);
+    }
+
+    @Test
+    public void openReturnsOneInstancePerRoot() throws Exception {
+        Path other = Files.createDirectory(root.resolve("other"));
+        Gvt.VersionControl repository = Repository.open(root);
+        assertThat(Repository.open(other.resolve(".."))).isSameAs(repository);
+        assertThat(Repository.open(other)).isNotSameAs(repository);
+
+        repository.init();
+        Repository.open(other).init();
+        Files.writeString(root.resolve("a.txt"), "a");
+        repository.add("a.txt", "");
+        assertThat(repository.version().number()).isEqualTo(1);
+        assertThat(Repository.open(other).version().number()).isZero();
+
+        assertThat(Repository.release(root)).isTrue();
+        assertThat(Repository.release(root)).isFalse();
+        Gvt.VersionControl reopened = Repository.open(root);
+        assertThat(reopened).isNotSameAs(repository);
+        assertThat(reopened.version().number()).isEqualTo(1);
+        Repository.release(root);
+        Repository.release(other);
+    }
+
+    @Test
+    public void addsAndCommitsSeveralFilesAndPatterns() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.createDirectory(root.resolve("dir"));
+        for (String fileName : List.of("a.txt", "b.txt", "dir/c.txt", "dir/d.md")) {
+            Files.writeString(root.resolve(fileName), fileName);
+        }
+
+        Gvt.VersionControl.BatchResult added = versionControl.add(List.of("a.txt", "dir/*.txt"), "");
+        assertThat(added.processed()).containsExactly("a.txt", "dir/c.txt");
+        assertThat(added.skipped()).isEmpty();
+        assertThat(added.version()).isEqualTo(1);
+        assertThat(versionControl.version(1).message()).isEqualTo("Files added successfully. Files: a.txt, dir/c.txt");
+
+        added = versionControl.add(List.of("a.txt", "b.txt", "b.txt"), "");
+        assertThat(added.processed()).containsExactly("b.txt");
+        assertThat(added.skipped()).containsExactly("a.txt");
+        assertThat(added.version()).isEqualTo(2);
+
+        added = versionControl.add(List.of("*.txt"), "");
+        assertThat(added.processed()).isEmpty();
+        assertThat(added.skipped()).containsExactly("a.txt", "b.txt");
+        assertThat(added.version()).isEqualTo(-1);
+
+        // a missing file aborts the whole batch, also next to tracked and untracked files
+        assertThatThrownBy(() -> versionControl.add(List.of("a.txt", "dir/d.md", "missing.txt"), ""))
+                .isInstanceOf(NoSuchFileException.class).hasMessage("File not found. File: missing.txt");
+        assertThatThrownBy(() -> versionControl.add(List.of("dir/d.md", "*.bin"), ""))
+                .isInstanceOf(NoSuchFileException.class).hasMessage("File not found. File: *.bin");
+        assertThat(versionControl.version().number()).isEqualTo(2);
+
+        Files.writeString(root.resolve("a.txt"), "a2");
+        Files.writeString(root.resolve("dir/c.txt"), "c2");
+        Gvt.VersionControl.BatchResult committed = versionControl.commit(List.of("*.txt", "dir/*"), "both");
+        assertThat(committed.processed()).containsExactly("a.txt", "b.txt", "dir/c.txt");
+        assertThat(committed.skipped()).containsExactly("dir/d.md");
+        assertThat(committed.version()).isEqualTo(3);
+        assertThat(versionControl.version(3).message()).isEqualTo("both\n");
+
+        committed = versionControl.commit(List.of("dir/d.md"), "");
+        assertThat(committed.processed()).isEmpty();
+        assertThat(committed.skipped()).containsExactly("dir/d.md");
+        assertThatThrownBy(() -> versionControl.commit(List.of("a.txt", "gone.txt"), ""))
+                .isInstanceOf(NoSuchFileException.class).hasMessage("File not found. File: gone.txt");
+        assertThatThrownBy(() -> versionControl.commit(List.of("a.txt", "dir/*.bin"), ""))
+                .isInstanceOf(NoSuchFileException.class).hasMessage("File not found. File: dir/*.bin");
+        assertThat(versionControl.version().number()).isEqualTo(3);
+
+        assertThat(versionControl.detach("dir/d.md").skipped()).containsExactly("dir/d.md");
+        assertThat(versionControl.detach("missing.txt").skipped()).containsExactly("missing.txt");
+        Files.delete(root.resolve("b.txt"));
+        assertThatThrownBy(() -> versionControl.detach("b.txt")).isInstanceOf(NoSuchFileException.class);
+        assertThat(versionControl.detach("dir/c.txt").processed()).containsExactly("dir/c.txt");
+        assertThat(versionControl.version().number()).isEqualTo(4);
+    }
+
+    @Test
+    public void batchCommandsExitWithTheCodeOfTheFirstMissingFile() throws Exception {
+        new Gvt.VersionControl(root).init();
+        Files.writeString(root.resolve("a.txt"), "a");
+        Files.writeString(root.resolve("b.txt"), "b");
+        List<String> exits = new ArrayList<>();
+        ExitHandler exitHandler = new ExitHandler() {
+            @Override
+            void exit(int code, String message) {
+                exits.add(code + ": " + message);
+            }
+
+            @Override
+            boolean terminates() {
+                return false;
+            }
+        };
+        Gvt gvt = new Gvt(exitHandler, new Gvt.VersionControl(root));
+
+        gvt.mainInternal("add", "a.txt", "missing.txt");
+        gvt.mainInternal("add", "a.txt", "*.txt");
+        gvt.mainInternal("add", "*.txt", "-m", "again");
+        gvt.mainInternal("commit", "a.txt", "*.bin");
+        gvt.mainInternal("commit", "*.txt", "c.txt");
+        gvt.mainInternal("checkout", "1", "a.txt", "missing*");
+        gvt.mainInternal("detach", "missing.txt");
+        assertThat(exits).containsExactly(
+                "21: File not found. File: missing.txt",
+                "0: File added successfully. File: a.txt\nFile added successfully. File: b.txt",
+                "0: File already added. File: a.txt",
+                "51: File not found. File: *.bin",
+                "51: File not found. File: c.txt",
+                "61: File not found. File: missing*",
+                "0: File is not added to gvt. File: missing.txt");
+        assertThat(new Gvt.VersionControl(root).version().number()).isEqualTo(1);
+    }
+
+    @Test
+    public void statusReportsOnlyModifiedAndDeletedTrackedFiles() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.createDirectory(root.resolve("dir"));
+        Path modified = root.resolve("dir/modified.txt");
+        Files.writeString(modified, "1");
+        Files.writeString(root.resolve("deleted.txt"), "1");
+        Files.writeString(root.resolve("kept.txt"), "1");
+        versionControl.add(List.of("dir/modified.txt", "deleted.txt", "kept.txt"), "");
+        assertThat(versionControl.status().describe()).isEqualTo("No changes.");
+
+        Files.writeString(modified, "22");
+        Files.delete(root.resolve("deleted.txt"));
+        Files.writeString(root.resolve("added.txt"), "1");
+        versionControl.add("added.txt", "");
+        Files.writeString(root.resolve("untracked.txt"), "1");
+        // added files are part of the latest version, and untracked ones are not compared
+        Gvt.VersionControl.StatusResult status = versionControl.status();
+        assertThat(status.modified()).containsExactly("dir/modified.txt");
+        assertThat(status.deleted()).containsExactly("deleted.txt");
+        assertThat(status.describe()).isEqualTo("Modified: dir/modified.txt\nDeleted: deleted.txt");
+
+        Files.writeString(modified, "1");
+        assertThat(versionControl.status().modified()).isEmpty();
+        assertThat(versionControl.status().describe()).isEqualTo("Deleted: deleted.txt");
+        Files.writeString(root.resolve("deleted.txt"), "1");
+        assertThat(versionControl.status().describe()).isEqualTo("No changes.");
+    }
+
+    @Test
+    public void sharesUnchangedSubtreesBetweenVersions() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.createDirectories(root.resolve("src/main"));
+        Files.createDirectory(root.resolve("docs"));
+        Path app = root.resolve("src/main/App.java");
+        Files.writeString(root.resolve("top.txt"), "top");
+        Files.writeString(app, "1");
+        Files.writeString(root.resolve("src/main/Util.java"), "util");
+        Files.writeString(root.resolve("docs/guide.md"), "guide");
+        versionControl.add(List.of("top.txt", "src/main/App.java", "src/main/Util.java", "docs/guide.md"), "");
+        Files.writeString(app, "2");
+        versionControl.commit("src/main/App.java", "");
+
+        ObjectStore store = new ObjectStore(root.resolve(".gvt/objects"), Codec.NONE);
+        VersionLog versionLog = new VersionLog(root.resolve(".gvt/versions.log"), root.resolve(".gvt/versions.idx"));
+        String first = versionLog.manifestHash(1);
+        String second = versionLog.manifestHash(2);
+        assertThat(Tree.flatten(store::readTree, second).keySet())
+                .containsExactly("docs/guide.md", "src/main/App.java", "src/main/Util.java", "top.txt");
+        assertThat(store.readTree(second).keySet()).containsExactly("docs/", "src/", "top.txt");
+        assertThat(store.readTree(second).get("docs/")).isEqualTo(store.readTree(first).get("docs/"));
+        assertThat(store.readTree(second).get("src/")).isNotEqualTo(store.readTree(first).get("src/"));
+
+        List<String> changed = new ArrayList<>();
+        Tree.compare(store::readTree, first, second, (path, oldHash, newHash) -> {
+            assertThat(oldHash).isNotNull();
+            assertThat(newHash).isNotNull();
+            changed.add(path);
+        });
+        assertThat(changed).containsExactly("src/main/App.java");
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        assertThat(versionControl.diff(1, 2, null, patch)).isEqualTo(1);
+        assertThat(patch.toString(StandardCharsets.UTF_8)).contains("--- a/src/main/App.java\n");
+
+        versionControl.checkout(1);
+        assertThat(Files.readString(app)).isEqualTo("1");
+        versionControl.checkout(2);
+        assertThat(Files.readString(app)).isEqualTo("2");
+
+        versionControl.detach("src/main/App.java");
+        versionControl.detach("src/main/Util.java");
+        assertThat(store.readTree(versionLog.manifestHash(4)).keySet()).containsExactly("docs/", "top.txt");
+    }
+
+    @Test
+    public void seekingAndCachedReadsAgree() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Path file = root.resolve("a.txt");
+        Files.writeString(file, "0");
+        versionControl.add("a.txt", "");
+        for (int i = 1; i <= 4; i++) {
+            Files.writeString(file, String.valueOf(i));
+            versionControl.commit("a.txt", "  zmiana " + i + "  \r\ndetails");
+        }
+        versionControl.pruneKeepLast(3);
+
+        VersionLog seeking = new VersionLog(root.resolve(".gvt/versions.log"), root.resolve(".gvt/versions.idx"));
+        VersionLog cached = new VersionLog(root.resolve(".gvt/versions.log"), root.resolve(".gvt/versions.idx"));
+        cached.cacheTable();
+        assertThat(seeking.first()).isEqualTo(3).isEqualTo(cached.first());
+        assertThat(seeking.history(3, 5)).isEqualTo(cached.history(3, 5))
+                .isEqualTo("5: zmiana 4\n4: zmiana 3\n3: zmiana 2\n");
+        for (int version = -1; version <= 6; version++) {
+            assertThat(seeking.contains(version)).isEqualTo(cached.contains(version));
+        }
+        assertThat(seeking.read(4)).isEqualTo(cached.read(4));
+        assertThat(seeking.manifestHash(5)).isEqualTo(cached.manifestHash(5));
+        assertThatThrownBy(() -> seeking.read(2)).isInstanceOf(InvalidVersionException.class);
+        assertThatThrownBy(() -> seeking.history(2, 5)).isInstanceOf(InvalidVersionException.class);
+        assertThatThrownBy(() -> seeking.read(6)).isInstanceOf(InvalidVersionException.class);
+    }
+
+    @Test
+    public void readsRecordsPastTwoGigabytesOfLog() throws Exception {
+        Path logFile = root.resolve("versions.log");
+        Path indexFile = root.resolve("versions.idx");
+        String hash = "0123456789abcdef0123456789abcdef01234567";
+        VersionLog versionLog = new VersionLog(logFile, indexFile);
+        versionLog.create();
+        versionLog.append(new VersionLog.VersionRecord(0, 10, hash, "first"));
+        // a sparse gap, so the record lies past what a single mapping can hold
+        long offset = 3L << 30;
+        byte[] message = "far away".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES + hash.length() + message.length)
+                .putInt(Integer.BYTES + Long.BYTES + hash.length() + message.length)
+                .putInt(1)
+                .putLong(20)
+                .put(hash.getBytes(StandardCharsets.US_ASCII))
+                .put(message)
+                .flip();
+        try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            log.write(record, offset);
+        }
+        Files.write(indexFile, ByteBuffer.allocate(Long.BYTES).putLong(offset).array(), StandardOpenOption.APPEND);
+
+        VersionLog cached = new VersionLog(logFile, indexFile);
+        cached.cacheTable();
+        for (VersionLog reader : List.of(versionLog, cached)) {
+            assertThat(reader.read(1)).isEqualTo(new VersionLog.VersionRecord(1, 20, hash, "far away"));
+            assertThat(reader.history(0, 1)).isEqualTo("1: far away\n0: first\n");
+        }
+    }
+
+    @Test
+    public void namesEndingInATrackedNameAreDifferentFiles() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.writeString(root.resolve("ba.txt"), "ba");
+        Files.writeString(root.resolve("a.txt"), "a");
+        versionControl.add("ba.txt", "");
+
+        assertThat(versionControl.commit("a.txt", "").skipped()).containsExactly("a.txt");
+        assertThat(versionControl.detach("a.txt").version()).isEqualTo(-1);
+        assertThat(versionControl.add("a.txt", "").processed()).containsExactly("a.txt");
+        assertThat(versionControl.detach("a.txt").processed()).containsExactly("a.txt");
+
+        Files.writeString(root.resolve("ba.txt"), "ba2");
+        assertThat(versionControl.commit("ba.txt", "").processed()).containsExactly("ba.txt");
+        assertThat(versionControl.version().number()).isEqualTo(4);
+    }
+
+    @Test
+    public void recoversAVersionInterruptedBeforeHeadMoved() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.writeString(root.resolve("a.txt"), "a");
+        versionControl.add("a.txt", "");
+        Path index = root.resolve(".gvt/index.bin");
+        byte[] firstIndex = Files.readAllBytes(index);
+        Files.writeString(root.resolve("b.txt"), "b");
+        versionControl.add("b.txt", "");
+
+        // version 2 was logged, but neither the index nor HEAD were written
+        Path journal = root.resolve(".gvt/journal");
+        Files.writeString(root.resolve(".gvt/HEAD"), "1");
+        Files.write(index, firstIndex);
+        Files.writeString(journal, "2");
+        Gvt.VersionControl completed = new Gvt.VersionControl(root);
+        assertThat(completed.version().number()).isEqualTo(2);
+        assertThat(journal).doesNotExist();
+        assertThat(completed.add("b.txt", "").skipped()).containsExactly("b.txt");
+
+        // version 3 was never logged, but the index was already changed
+        Files.write(index, firstIndex);
+        Files.writeString(journal, "3");
+        Gvt.VersionControl rolledBack = new Gvt.VersionControl(root);
+        assertThat(rolledBack.version().number()).isEqualTo(2);
+        assertThat(journal).doesNotExist();
+        assertThat(rolledBack.add("b.txt", "").skipped()).containsExactly("b.txt");
+        assertThatThrownBy(() -> rolledBack.version(3)).isInstanceOf(InvalidVersionException.class);
+    }
+
+    @Test
+    public void migratesTheBaselineLayout() throws Exception {
+        createBaselineRepository(3);
+        String history = """
+                3: File committed successfully. File: a.txt
+                2: File added successfully. File: b.txt
+                1: File added successfully. File: a.txt
+                0: GVT initialized.
+                """;
+
+        assertThat(new Gvt.VersionControl(root).history()).isEqualTo(history);
+        assertMigrated(3);
+        // a second run finds nothing left to convert
+        assertThat(new Gvt.VersionControl(root).history()).isEqualTo(history);
+        assertMigrated(3);
+    }
+
+    @Test
+    public void resumesAnInterruptedMigration() throws Exception {
+        createBaselineRepository(1);
+        assertThat(new Gvt.VersionControl(root).version().number()).isEqualTo(1);
+        // killed while converting versions 0..3: version 1 was logged, version 2 only partly,
+        // and neither the legacy directories nor the text index were removed yet
+        createBaselineRepository(3);
+        Files.write(root.resolve(".gvt/versions.log"), new byte[]{0, 0, 0, 60, 0}, StandardOpenOption.APPEND);
+        Files.write(root.resolve(".gvt/versions.idx"), new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+
+        assertThat(new Gvt.VersionControl(root).history().lines()).hasSize(4);
+        assertMigrated(3);
+    }
+
+    /**
+     * Lays out {@code .gvt} the way the original implementation did: a message in
+     * {@code versions/N.txt} and a full copy of every tracked file in {@code files/N/} per version.
+     */
+    private void createBaselineRepository(int head) throws IOException {
+        Path gvt = root.resolve(".gvt");
+        List<String> messages = List.of("GVT initialized.", "File added successfully. File: a.txt",
+                "File added successfully. File: b.txt", "File committed successfully. File: a.txt");
+        List<Map<String, String>> contents = List.of(Map.of(), Map.of("a.txt", "a1"),
+                Map.of("a.txt", "a1", "b.txt", "b"), Map.of("a.txt", "a2", "b.txt", "b"));
+        for (int version = 0; version <= head; version++) {
+            Path files = Files.createDirectories(gvt.resolve("files/" + version));
+            for (Map.Entry<String, String> file : contents.get(version).entrySet()) {
+                Files.writeString(files.resolve(file.getKey()), file.getValue());
+                Files.writeString(root.resolve(file.getKey()), file.getValue());
+            }
+            Files.writeString(Files.createDirectories(gvt.resolve("versions")).resolve(version + ".txt"),
+                    messages.get(version));
+        }
+        Files.writeString(gvt.resolve("HEAD"), String.valueOf(head));
+        String trackedFiles = String.join("\n", new TreeSet<>(contents.get(head).keySet()));
+        Files.writeString(gvt.resolve("index.txt"), trackedFiles + "\n");
+    }
+
+    private void assertMigrated(int head) throws IOException {
+        Path gvt = root.resolve(".gvt");
+        for (String legacy : List.of("versions", "files", "manifests", "index.txt")) {
+            assertThat(Files.exists(gvt.resolve(legacy))).isFalse();
+        }
+        VersionLog versionLog = new VersionLog(gvt.resolve("versions.log"), gvt.resolve("versions.idx"));
+        assertThat(versionLog.size()).isEqualTo(head + 1);
+        assertThat(Files.size(gvt.resolve("versions.idx"))).isEqualTo((head + 1L) * VersionLog.INDEX_ENTRY_SIZE);
+        ObjectStore store = new ObjectStore(gvt.resolve("objects"), Codec.NONE);
+        assertThat(Tree.flatten(store::readTree, versionLog.manifestHash(0))).isEmpty();
+        assertThat(Tree.flatten(store::readTree, versionLog.manifestHash(1)))
+                .isEqualTo(Map.of("a.txt", ObjectStore.hash("a1".getBytes(StandardCharsets.UTF_8))));
+        assertThat(Tree.flatten(store::readTree, versionLog.manifestHash(head)))
+                .isEqualTo(Map.of("a.txt", ObjectStore.hash("a2".getBytes(StandardCharsets.UTF_8)),
+                        "b.txt", ObjectStore.hash("b".getBytes(StandardCharsets.UTF_8))));
+
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        assertThat(versionControl.add(List.of("a.txt", "b.txt"), "").skipped()).containsExactly("a.txt", "b.txt");
+        versionControl.checkout(1);
+        assertThat(Files.readString(root.resolve("a.txt"))).isEqualTo("a1");
+        versionControl.checkout(head);
+        assertThat(Files.readString(root.resolve("a.txt"))).isEqualTo("a2");
+    }
+
+    @Test
+    public void checkoutRewritesOnlyFilesThatDiffer() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Path a = root.resolve("a.txt");
+        Path b = root.resolve("b.txt");
+        Files.writeString(a, "a1");
+        Files.writeString(b, "b1");
+        versionControl.add(List.of("a.txt", "b.txt"), "");
+        Files.writeString(a, "a2");
+        versionControl.commit("a.txt", "");
+
+        Gvt.VersionControl.CheckoutResult result = versionControl.checkout(1);
+        assertThat(result.written()).isEqualTo(1);
+        assertThat(result.skipped()).isEqualTo(1);
+        assertThat(Files.readString(a)).isEqualTo("a1");
+
+        result = versionControl.checkout(1);
+        assertThat(result.written()).isZero();
+        assertThat(result.skipped()).isEqualTo(2);
+
+        Files.writeString(b, "edited");
+        result = versionControl.checkout(1);
+        assertThat(result.written()).isEqualTo(1);
+        assertThat(result.skipped()).isEqualTo(1);
+        assertThat(Files.readString(b)).isEqualTo("b1");
+
+        List<String> output = new ArrayList<>();
+        ExitHandler exitHandler = new ExitHandler() {
+            @Override
+            void exit(int code, String message) {
+                output.add(message);
+                assertThat(code).isZero();
+            }
+
+            @Override
+            void summary(String summary) {
+                output.add(summary);
+            }
+        };
+        new Gvt(exitHandler, versionControl).mainInternal("checkout", "2");
+        assertThat(output).containsExactly("Files written: 1, skipped: 1", "Checkout successful for version: 2");
+    }
+
+    @Test
+    public void statCacheKeepsTheAttributesReadBeforeTheContent() throws Exception {
+        Path file = root.resolve("a.txt");
+        Files.writeString(file, "old");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS)));
+        BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+        // edited while it was being stored
+        Files.writeString(file, "new content");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS)));
+        StatCache statCache = StatCache.load(root.resolve("stat.cache"));
+        statCache.record(file, before, ObjectStore.hash("old".getBytes(StandardCharsets.UTF_8)));
+        statCache.save();
+
+        assertThat(StatCache.load(root.resolve("stat.cache")).hashOf(file))
+                .isEqualTo(ObjectStore.hash("new content".getBytes(StandardCharsets.UTF_8)));
+
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        versionControl.add("a.txt", "");
+        Files.writeString(file, "changed");
+        versionControl.commit("a.txt", "");
+        versionControl.checkout(1);
+        assertThat(Files.readString(file)).isEqualTo("new content");
+        try (Stream<Path> files = Files.list(root)) {
+            assertThat(files.map(Path::getFileName).map(Path::toString).toList())
+                    .containsExactlyInAnyOrder(".gvt", "a.txt", "stat.cache");
+        }
+    }
+
+    @Test
+    public void statCacheDistrustsFilesModifiedWithinTheTickItWasSaved() throws Exception {
+        Path file = root.resolve("a.txt");
+        Path cacheFile = root.resolve("stat.cache");
+        Files.writeString(file, "a1");
+        FileTime tick = Files.getLastModifiedTime(file);
+        StatCache statCache = StatCache.load(cacheFile);
+        assertThat(statCache.hashOf(file)).isEqualTo(ObjectStore.hash("a1".getBytes(StandardCharsets.UTF_8)));
+        statCache.save();
+        // a coarse file system clock gives the cache and a later write of the same size one timestamp
+        Files.setLastModifiedTime(cacheFile, tick);
+        Files.writeString(file, "a2");
+        Files.setLastModifiedTime(file, tick);
+
+        assertThat(StatCache.load(cacheFile).hashOf(file))
+                .isEqualTo(ObjectStore.hash("a2".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void checksOutOnlyMatchingFiles() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.createDirectory(root.resolve("conf"));
+        Path config = root.resolve("conf/app.cfg");
+        Path source = root.resolve("Main.java");
+        Files.writeString(config, "1");
+        Files.writeString(source, "1");
+        versionControl.add(List.of("conf/app.cfg", "Main.java"), "");
+        Files.writeString(config, "2");
+        Files.writeString(source, "2");
+        versionControl.commit(List.of("conf/app.cfg", "Main.java"), "");
+
+        assertThat(versionControl.checkout(1, List.of("conf")).written()).isEqualTo(1);
+        assertThat(Files.readString(config)).isEqualTo("1");
+        assertThat(Files.readString(source)).isEqualTo("2");
+        assertThatThrownBy(() -> versionControl.checkout(1, List.of("*.txt")))
+                .isInstanceOf(NoSuchFileException.class);
+
+        versionControl.setSparsePatterns(List.of("*.java"));
+        assertThat(versionControl.sparsePatterns()).containsExactly("*.java");
+        assertThat(versionControl.checkout(2).written()).isZero();
+        assertThat(Files.readString(config)).isEqualTo("1");
+        assertThat(versionControl.checkout(1).written()).isEqualTo(1);
+        assertThat(Files.readString(source)).isEqualTo("1");
+        assertThat(versionControl.status().modified()).containsExactly("Main.java");
+
+        versionControl.setSparsePatterns(List.of());
+        assertThat(versionControl.sparsePatterns()).isEmpty();
+        assertThat(versionControl.checkout(2).written()).isEqualTo(2);
+    }
+
+    @Test
+    public void countsTheWorkOfEachPhase() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        Files.writeString(root.resolve("a.txt"), "abc");
+
+        Metrics.Snapshot before = Metrics.snapshot();
+        versionControl.add("a.txt", "");
+        versionControl.checkout(0);
+        Metrics.Snapshot spent = Metrics.snapshot().since(before);
+
+        assertThat(spent.phases().get(Metrics.Phase.SNAPSHOT).count()).isPositive();
+        assertThat(spent.phases().get(Metrics.Phase.METADATA_WRITE).count()).isPositive();
+        assertThat(spent.phases().get(Metrics.Phase.RESTORE).count()).isPositive();
+        assertThat(spent.bytesRead()).isGreaterThanOrEqualTo(3);
+        assertThat(spent.filesTouched()).isPositive();
+        assertThat(spent.fsyncs()).isPositive();
+    }
+
+    @Test
+    public void jobsOptionAppliesToOneCommand() throws Exception {
+        Gvt.VersionControl versionControl = Repository.open(root);
+        versionControl.init();
+        Files.writeString(root.resolve("a.txt"), "a");
+        int configured = versionControl.jobs();
+        List<Integer> seen = new ArrayList<>();
+        versionControl.withJobs(configured + 2, () -> {
+            try {
+                seen.add(versionControl.jobs());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertThat(seen).containsExactly(configured + 2);
+
+        ExitHandler exitHandler = new ExitHandler() {
+            @Override
+            void exitOperation(int code) {
+                assertThat(code).isZero();
+            }
+        };
+        new Gvt(exitHandler, versionControl).mainInternal("--jobs", String.valueOf(configured + 3), "add", "a.txt");
+        assertThat(versionControl.jobs()).isEqualTo(configured);
+        assertThat(Repository.release(root)).isTrue();
+    }
+
+    @Test
+    public void statsArePrintedAfterTheCommandMessage() throws Exception {
+        Gvt.VersionControl versionControl = new Gvt.VersionControl(root);
+        versionControl.init();
+        for (boolean terminates : new boolean[]{false, true}) {
+            List<Integer> codes = new ArrayList<>();
+            ExitHandler exitHandler = new ExitHandler() {
+                @Override
+                void exitOperation(int code) {
+                    codes.add(code);
+                }
+
+                @Override
+                boolean terminates() {
+                    return terminates;
+                }
+            };
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PrintStream out = System.out;
+            PrintStream err = System.err;
+            PrintStream both = new PrintStream(output, true, StandardCharsets.UTF_8);
+            try {
+                System.setOut(both);
+                System.setErr(both);
+                new Gvt(exitHandler, versionControl).mainInternal("--stats", "version");
+            } finally {
+                System.setOut(out);
+                System.setErr(err);
+            }
+            assertThat(output.toString(StandardCharsets.UTF_8)).startsWith("Version: 0\nGVT initialized.\nversion: ");
+            assertThat(codes).containsExactly(0);
+        }
+    }
+
+    @Test
+    public void sharedInstancesServeSeveralRepositories() throws Exception {
+        List<Path> roots = List.of(Files.createDirectory(root.resolve("first")),
+                Files.createDirectory(root.resolve("second")));
+        List<Gvt.VersionControl> repositories = new ArrayList<>();
+        for (Path repositoryRoot : roots) {
+            Gvt.VersionControl repository = new Gvt.VersionControl(repositoryRoot);
+            repository.init();
+            repositories.add(repository);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS * repositories.size());
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                for (int r = 0; r < repositories.size(); r++) {
+                    Gvt.VersionControl repository = repositories.get(r);
+                    Path repositoryRoot = roots.get(r);
+                    String fileName = "thread" + thread + ".txt";
+                    writers.add(executor.submit((Callable<Void>) () -> {
+                        Files.writeString(repositoryRoot.resolve(fileName), "0");
+                        repository.add(fileName, "");
+                        for (int commit = 1; commit <= COMMITS_PER_THREAD; commit++) {
+                            Files.writeString(repositoryRoot.resolve(fileName), String.valueOf(commit));
+                            repository.commit(fileName, "");
+                            assertThat(repository.history(3)).isNotEmpty();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Gvt.VersionControl repository : repositories) {
+            assertThat(repository.version().number()).isEqualTo(THREADS * (COMMITS_PER_THREAD + 1));
+            assertThat(repository.history().lines()).hasSize(THREADS * (COMMITS_PER_THREAD + 1) + 1);
+        }
+    }
+}